@@ -0,0 +1,77 @@
+package io.sjohnson.ubnttask;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates benchmark datasets from a fixed seed, so every run measures the same topologies
+ */
+public final class BenchmarkTopologies {
+    public static final long SEED = 0x5EED;
+
+    // a gateway per this many devices
+    private static final int DEVICES_PER_GATEWAY = 1000;
+
+    private BenchmarkTopologies() {
+    }
+
+    /**
+     * Random forest of gateways, switches and access points. Every device hangs off a random gateway or switch
+     * generated before it
+     *
+     * @param size number of devices
+     * @param seed random seed
+     * @return devices, uplinks before their downlinks
+     */
+    public static List<NetworkDeviceDTO> forest(int size, long seed) {
+        Random random = new Random(seed);
+        List<NetworkDeviceDTO> devices = new ArrayList<>(size);
+        List<String> uplinks = new ArrayList<>();
+        int gateways = Math.max(1, size / DEVICES_PER_GATEWAY);
+
+        for (int i = 0; i < size; i++) {
+            String macAddress = macAddress(i).toString();
+
+            if (i < gateways) {
+                devices.add(new NetworkDeviceDTO(macAddress, null, NetworkDeviceType.GATEWAY.toString(), "Gateway " + i));
+                uplinks.add(macAddress);
+                continue;
+            }
+
+            String uplink = uplinks.get(random.nextInt(uplinks.size()));
+
+            if (random.nextInt(10) < 3) {
+                devices.add(new NetworkDeviceDTO(macAddress, uplink, NetworkDeviceType.SWITCH.toString(), "Switch " + i));
+                uplinks.add(macAddress);
+            } else {
+                devices.add(new NetworkDeviceDTO(macAddress, uplink, NetworkDeviceType.ACCESS_POINT.toString(), "Access point " + i));
+            }
+        }
+
+        return devices;
+    }
+
+    /**
+     * @param depth number of switches below the gateway
+     * @return a gateway followed by a chain of switches, each one the uplink of the next
+     */
+    public static List<NetworkDeviceDTO> chain(int depth) {
+        List<NetworkDeviceDTO> devices = new ArrayList<>(depth + 1);
+        devices.add(new NetworkDeviceDTO(macAddress(0).toString(), null, NetworkDeviceType.GATEWAY.toString(), "Gateway"));
+
+        for (int i = 1; i <= depth; i++) {
+            devices.add(new NetworkDeviceDTO(macAddress(i).toString(), macAddress(i - 1).toString(), NetworkDeviceType.SWITCH.toString(), "Switch " + i));
+        }
+
+        return devices;
+    }
+
+    public static MacAddress macAddress(int i) {
+        return MacAddress.of(0x0200_0000_0000L + i);
+    }
+}
@@ -0,0 +1,43 @@
+package io.sjohnson.ubnttask.constructs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.BenchmarkTopologies;
+import io.sjohnson.ubnttask.services.NetworkDeviceDTOMapper;
+import io.sjohnson.ubnttask.services.NetworkTopologyIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the nested topology returned by GET /device/topology
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TopologySerializationBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private List<NetworkDeviceTopologyDTO> topology;
+
+    @Setup
+    public void setup() {
+        NetworkTopologyIndex index = new NetworkTopologyIndex(null, new NetworkDeviceDTOMapper(), null);
+        index.putAllOnCommit(BenchmarkTopologies.forest(size, BenchmarkTopologies.SEED));
+
+        topology = index.getTopology();
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), topology);
+    }
+}
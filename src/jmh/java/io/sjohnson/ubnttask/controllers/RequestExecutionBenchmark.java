@@ -0,0 +1,106 @@
+package io.sjohnson.ubnttask.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.BenchmarkTopologies;
+import io.sjohnson.ubnttask.UbntTaskApplication;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+import io.sjohnson.ubnttask.services.NetworkDeviceService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests served by Tomcat's thread pool against requests served on virtual threads. Runs more client threads than
+ * the default Tomcat pool has, so that the pool is saturated in the platform thread mode
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.tracePinnedThreads=short")
+@Threads(256)
+@State(Scope.Benchmark)
+public class RequestExecutionBenchmark {
+    private static final int SIZE = 10_000;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private ConfigurableApplicationContext context;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private URI baseUri;
+
+    private List<NetworkDeviceDTO> devices;
+
+    private List<NetworkDeviceDTO> accessPoints;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(UbntTaskApplication.class)
+                // as arguments, since default properties would be overridden by application.properties
+                .run(
+                        "--server.port=0",
+                        "--spring.threads.virtual.enabled=" + virtualThreads,
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark",
+                        "--audit-log.file=build/jmh-audit.log",
+                        "--topology-snapshot.file=",
+                        "--logging.level.root=WARN");
+
+        devices = BenchmarkTopologies.forest(SIZE, BenchmarkTopologies.SEED);
+        accessPoints = devices.stream().filter((device) -> device.getType().equals(NetworkDeviceType.ACCESS_POINT.toString())).toList();
+        context.getBean(NetworkDeviceService.class).saveAll(devices);
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        baseUri = URI.create(String.format("http://localhost:%d", port));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int getDevice() throws IOException, InterruptedException {
+        NetworkDeviceDTO device = devices.get(ThreadLocalRandom.current().nextInt(devices.size()));
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/device/" + device.getMacAddress())).GET().build();
+
+        return send(request);
+    }
+
+    @Benchmark
+    public int putDevice() throws IOException, InterruptedException {
+        NetworkDeviceDTO accessPoint = accessPoints.get(ThreadLocalRandom.current().nextInt(accessPoints.size()));
+        NetworkDeviceDTO renamed = new NetworkDeviceDTO(accessPoint.getMacAddress(), accessPoint.getUplink(), accessPoint.getType(), "Access point " + ThreadLocalRandom.current().nextInt(1000));
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/device"))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(renamed)))
+                .build();
+
+        return send(request);
+    }
+
+    private int send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(String.format("Request failed with status %d", response.statusCode()));
+        }
+
+        return response.statusCode();
+    }
+}
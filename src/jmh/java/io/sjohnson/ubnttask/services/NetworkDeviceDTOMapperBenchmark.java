@@ -0,0 +1,78 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.BenchmarkTopologies;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceTopologyDTO;
+import io.sjohnson.ubnttask.entities.NetworkDevice;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceRow;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceSubtreeRow;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NetworkDeviceDTOMapperBenchmark {
+    private final NetworkDeviceDTOMapper mapper = new NetworkDeviceDTOMapper();
+
+    private NetworkDeviceDTO dto;
+
+    private NetworkDevice entity;
+
+    private NetworkDeviceRow row;
+
+    // a gateway with 1000 devices below it, as read by findSubtree()
+    private List<NetworkDeviceSubtreeRow> subtree;
+
+    @Setup
+    public void setup() {
+        dto = new NetworkDeviceDTO("12:34:56:78:90:ab", "12:34:56:78:90:ac", "SWITCH", "Switch 48 Enterprise");
+        entity = mapper.toNetworkDevice(dto);
+        row = new NetworkDeviceRow(MacAddress.parse(dto.getMacAddress()), MacAddress.parse(dto.getUplink()), dto.getType(), dto.getFriendlyName());
+
+        NetworkTopologyIndex index = new NetworkTopologyIndex(null, mapper, null);
+        index.putAllOnCommit(BenchmarkTopologies.forest(1000, BenchmarkTopologies.SEED));
+
+        subtree = new ArrayList<>();
+        List<NetworkDeviceTopologyDTO> level = List.of(index.getTopology().get(0));
+
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            List<NetworkDeviceTopologyDTO> nextLevel = new ArrayList<>();
+
+            for (NetworkDeviceTopologyDTO device : level) {
+                subtree.add(new NetworkDeviceSubtreeRow(MacAddress.parse(device.getMacAddress()), device.getUplink() != null ? MacAddress.parse(device.getUplink()) : null, device.getType(), device.getFriendlyName(), depth));
+                nextLevel.addAll(device.getDownlinks());
+            }
+
+            level = nextLevel;
+        }
+    }
+
+    @Benchmark
+    public NetworkDevice toNetworkDevice() {
+        return mapper.toNetworkDevice(dto);
+    }
+
+    @Benchmark
+    public NetworkDeviceDTO entityToDto() {
+        return mapper.toDto(entity);
+    }
+
+    @Benchmark
+    public NetworkDeviceDTO rowToDto() {
+        return mapper.toDto(row);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public NetworkDeviceTopologyDTO subtreeToTopology() {
+        return mapper.toTopology(subtree);
+    }
+}
@@ -0,0 +1,61 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.BenchmarkTopologies;
+import io.sjohnson.ubnttask.UbntTaskApplication;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NetworkDeviceService.save() against an in-memory database, updating an access point at the end of a switch chain
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NetworkDeviceServiceBenchmark {
+    @Param({"1", "10", "100"})
+    public int depth;
+
+    private ConfigurableApplicationContext context;
+
+    private NetworkDeviceService service;
+
+    private NetworkDeviceDTO device;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(UbntTaskApplication.class)
+                .web(WebApplicationType.NONE)
+                // as arguments, since default properties would be overridden by application.properties
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark",
+                        "--audit-log.file=build/jmh-audit.log",
+                        "--topology-snapshot.file=",
+                        "--logging.level.root=WARN");
+        service = context.getBean(NetworkDeviceService.class);
+
+        // the chain is the gateway plus depth - 1 switches, so the access point sits depth levels below the gateway
+        service.saveAll(BenchmarkTopologies.chain(depth - 1));
+
+        String uplink = BenchmarkTopologies.macAddress(depth - 1).toString();
+        device = new NetworkDeviceDTO(BenchmarkTopologies.macAddress(depth).toString(), uplink, NetworkDeviceType.ACCESS_POINT.toString(), "Access point");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public NetworkDeviceDTO save() throws Exception {
+        return service.save(device);
+    }
+}
@@ -0,0 +1,70 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.BenchmarkTopologies;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The loop check behind NetworkDeviceService.validateNoNetworkLoop, and the simple topology builder that replaced
+ * simplifyTopology
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NetworkTopologyIndexBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    private NetworkTopologyIndex index;
+
+    private MacAddress root;
+
+    private MacAddress deepest;
+
+    @Setup
+    public void setup() {
+        List<NetworkDeviceDTO> devices = BenchmarkTopologies.forest(size, BenchmarkTopologies.SEED);
+
+        // outside a transaction, changes are applied right away, and the repository is never used
+        index = new NetworkTopologyIndex(null, new NetworkDeviceDTOMapper(), null);
+        index.putAllOnCommit(devices);
+
+        int deepestDepth = -1;
+
+        for (NetworkDeviceDTO device : devices) {
+            MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+            int depth = 0;
+
+            for (MacAddress current = macAddress; index.getUplink(current) != null; current = index.getUplink(current)) {
+                depth++;
+            }
+
+            if (depth > deepestDepth) {
+                deepest = macAddress;
+                deepestDepth = depth;
+            }
+        }
+
+        for (root = deepest; index.getUplink(root) != null; root = index.getUplink(root)) {
+            // walk up to the gateway of the deepest device
+        }
+    }
+
+    // worst case: moving a gateway below the deepest device of its own tree walks the whole chain up to it
+    @Benchmark
+    public List<MacAddress> findLoop() {
+        return index.findLoop(root, deepest);
+    }
+
+    @Benchmark
+    public byte[] simpleTopology() {
+        return index.getSimpleTopologyJson();
+    }
+}
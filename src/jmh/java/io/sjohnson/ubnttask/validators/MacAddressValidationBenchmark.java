@@ -0,0 +1,68 @@
+package io.sjohnson.ubnttask.validators;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static io.sjohnson.ubnttask.entities.NetworkDevice.MAC_ADDRESS_REGEXP;
+
+/**
+ * Compares the validators against what they replaced: a precompiled regular expression for MAC addresses, and a
+ * list scan for enum values. Run with -prof gc to compare allocation rates
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacAddressValidationBenchmark {
+    private static final Pattern MAC_ADDRESS_PATTERN = Pattern.compile(MAC_ADDRESS_REGEXP);
+
+    @State(Scope.Benchmark)
+    public static class MacAddresses {
+        @Param({"12:34:56:78:90:ab", "12:34:56:78:90:AB", "12-34-56-78-90-ab"})
+        public String macAddress;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Types {
+        @Param({"ACCESS_POINT", "GATEWAY", "ROUTER"})
+        public String type;
+
+        private List<String> list;
+
+        private Set<String> set;
+
+        @Setup
+        public void setup() {
+            list = Stream.of(NetworkDeviceType.values()).map(Enum::name).toList();
+            set = Set.copyOf(list);
+        }
+    }
+
+    @Benchmark
+    public boolean macAddressPattern(MacAddresses state) {
+        return MAC_ADDRESS_PATTERN.matcher(state.macAddress).matches();
+    }
+
+    @Benchmark
+    public boolean macAddressSinglePass(MacAddresses state) {
+        return MacAddress.isValid(state.macAddress);
+    }
+
+    @Benchmark
+    public boolean enumList(Types state) {
+        return state.list.contains(state.type);
+    }
+
+    @Benchmark
+    public boolean enumSet(Types state) {
+        return state.set.contains(state.type);
+    }
+}
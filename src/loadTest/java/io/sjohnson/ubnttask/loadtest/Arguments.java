@@ -0,0 +1,29 @@
+package io.sjohnson.ubnttask.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class Arguments {
+    private Arguments() {
+    }
+
+    /**
+     * @param args command line arguments formatted as --name=value
+     * @return name => value
+     */
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+
+        for (String arg : args) {
+            String[] nameAndValue = arg.replaceFirst("^--", "").split("=", 2);
+
+            if (nameAndValue.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid argument: %s - expected --name=value", arg));
+            }
+
+            arguments.put(nameAndValue[0], nameAndValue[1]);
+        }
+
+        return arguments;
+    }
+}
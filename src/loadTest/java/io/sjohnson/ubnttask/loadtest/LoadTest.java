@@ -0,0 +1,349 @@
+package io.sjohnson.ubnttask.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays a mixed read/write workload against the REST API and reports throughput and latency percentiles per
+ * endpoint. Expects the application to be running, with an empty database or one it's free to write to:
+ * ./gradlew loadTest -Pargs="--url=http://localhost:8080 --size=20000 --threads=16 --duration=60"
+ * <p>
+ * The topology is generated by TopologyGenerator, so it accepts the same shape arguments, and is imported through
+ * /device/batch before the workload starts. Writes only touch access points, each worker its own share of them, so
+ * workers never fail each other's requests
+ */
+public class LoadTest {
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    private static final int RENAME_BATCH_SIZE = 20;
+
+    enum Endpoint {
+        GET_ALL("GET /device", 1, false),
+        GET_PAGE("GET /device/page", 15, false),
+        EXPORT("GET /device/export", 1, false),
+        PUT("PUT /device", 60, true),
+        PUT_BATCH("PUT /device/batch", 20, true),
+        GET_TOPOLOGY("GET /device/topology", 3, false),
+        GET_SIMPLE_TOPOLOGY("GET /device/topology/simple", 5, false),
+        GET_DEVICE("GET /device/{macAddress}", 40, false),
+        GET_DEVICE_TOPOLOGY("GET /device/{macAddress}/topology", 20, false),
+        DELETE("DELETE /device/{macAddress}", 20, true);
+
+        final String label;
+
+        // relative to the other reads, or to the other writes
+        final int weight;
+
+        final boolean write;
+
+        Endpoint(String label, int weight, boolean write) {
+            this.label = label;
+            this.weight = weight;
+            this.write = write;
+        }
+    }
+
+    private final URI baseUri;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final TopologyGenerator generator;
+
+    private final Map<String, NetworkDeviceDTO> devices = new HashMap<>();
+
+    private final List<String> macAddresses = new ArrayList<>();
+
+    public LoadTest(URI baseUri, TopologyGenerator generator) {
+        this.baseUri = baseUri;
+        this.generator = generator;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = Arguments.parse(args);
+        URI baseUri = URI.create(arguments.getOrDefault("url", "http://localhost:8080"));
+        int threads = Integer.parseInt(arguments.getOrDefault("threads", "8"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(arguments.getOrDefault("warmup", "10")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(arguments.getOrDefault("duration", "30")));
+        double writeRatio = Double.parseDouble(arguments.getOrDefault("write-ratio", "0.1"));
+        TopologyShape shape = new TopologyShape(arguments);
+
+        LoadTest loadTest = new LoadTest(baseUri, new TopologyGenerator(shape));
+
+        System.out.printf("Importing topology (%s)%n", shape);
+        loadTest.importTopology();
+
+        System.out.printf("Warming up for %ds%n", warmup.toSeconds());
+        loadTest.run(threads, warmup, writeRatio, shape.seed);
+
+        System.out.printf("Running %d threads for %ds, %.0f%% writes%n", threads, duration.toSeconds(), writeRatio * 100);
+        Map<Endpoint, Latencies> results = loadTest.run(threads, duration, writeRatio, shape.seed + 1);
+
+        report(results, duration);
+    }
+
+    private void importTopology() throws IOException, InterruptedException {
+        List<NetworkDeviceDTO> topology = generator.generate();
+        long start = System.nanoTime();
+
+        // batches are sent in order, so every uplink exists by the time its downlinks are imported
+        for (int i = 0; i < topology.size(); i += IMPORT_BATCH_SIZE) {
+            List<NetworkDeviceDTO> batch = topology.subList(i, Math.min(i + IMPORT_BATCH_SIZE, topology.size()));
+            HttpResponse<Void> response = client.send(put("/device/batch", batch), HttpResponse.BodyHandlers.discarding());
+
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(String.format("Import failed with status %d", response.statusCode()));
+            }
+        }
+
+        topology.forEach((device) -> devices.put(device.getMacAddress(), device));
+        macAddresses.addAll(devices.keySet());
+        System.out.printf("Imported %d devices in %dms%n", topology.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private Map<Endpoint, Latencies> run(int threads, Duration duration, double writeRatio, long seed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Map<Endpoint, Latencies>>> workers = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            List<String> ownAccessPoints = new ArrayList<>();
+
+            for (int j = i; j < generator.getAccessPoints().size(); j += threads) {
+                ownAccessPoints.add(generator.getAccessPoints().get(j));
+            }
+
+            Worker worker = new Worker(new Random(seed * 31 + i), ownAccessPoints, writeRatio, deadline);
+            workers.add(executor.submit(worker::run));
+        }
+
+        Map<Endpoint, Latencies> results = new EnumMap<>(Endpoint.class);
+
+        for (Future<Map<Endpoint, Latencies>> worker : workers) {
+            worker.get().forEach((endpoint, latencies) -> results.computeIfAbsent(endpoint, (key) -> new Latencies()).addAll(latencies));
+        }
+
+        executor.shutdown();
+
+        return results;
+    }
+
+    private static void report(Map<Endpoint, Latencies> results, Duration duration) {
+        System.out.printf("%n%-34s %9s %7s %9s %9s %9s %9s %9s%n", "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+
+        long total = 0;
+
+        for (Map.Entry<Endpoint, Latencies> result : results.entrySet()) {
+            Latencies latencies = result.getValue();
+            latencies.sort();
+            total += latencies.size();
+
+            System.out.printf("%-34s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    result.getKey().label,
+                    latencies.size(),
+                    latencies.errors,
+                    latencies.size() / (double) duration.toSeconds(),
+                    latencies.percentile(0.5) / 1e6,
+                    latencies.percentile(0.99) / 1e6,
+                    latencies.percentile(0.999) / 1e6,
+                    latencies.percentile(1) / 1e6);
+        }
+
+        System.out.printf("%-34s %9d %7s %9.1f%n", "Total", total, "", total / (double) duration.toSeconds());
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).GET().build();
+    }
+
+    private HttpRequest put(String path, Object body) throws IOException {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+    }
+
+    private class Worker {
+        private final Random random;
+
+        private final List<String> ownAccessPoints;
+
+        private final double writeRatio;
+
+        private final long deadline;
+
+        private final Map<Endpoint, Latencies> latencies = new EnumMap<>(Endpoint.class);
+
+        // last ETag of the simple topology, sent back like a polling dashboard would
+        private String simpleTopologyEtag;
+
+        private Worker(Random random, List<String> ownAccessPoints, double writeRatio, long deadline) {
+            this.random = random;
+            this.ownAccessPoints = ownAccessPoints;
+            this.writeRatio = writeRatio;
+            this.deadline = deadline;
+        }
+
+        private Map<Endpoint, Latencies> run() throws IOException, InterruptedException {
+            while (System.nanoTime() < deadline) {
+                boolean write = !ownAccessPoints.isEmpty() && random.nextDouble() < writeRatio;
+                Endpoint endpoint = pick(write);
+                HttpRequest request = request(endpoint);
+
+                HttpResponse<Void> response = send(endpoint, request);
+
+                if (endpoint == Endpoint.GET_SIMPLE_TOPOLOGY) {
+                    simpleTopologyEtag = response.headers().firstValue("ETag").orElse(null);
+                }
+
+                // deleted access points are put back right away, so the topology keeps its size
+                if (endpoint == Endpoint.DELETE) {
+                    String macAddress = request.uri().getPath().substring("/device/".length());
+                    send(Endpoint.PUT, put("/device", devices.get(macAddress)));
+                }
+            }
+
+            return latencies;
+        }
+
+        private HttpResponse<Void> send(Endpoint endpoint, HttpRequest request) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            Latencies endpointLatencies = latencies.computeIfAbsent(endpoint, (key) -> new Latencies());
+            endpointLatencies.add(System.nanoTime() - start);
+
+            if (response.statusCode() >= 400) {
+                endpointLatencies.errors++;
+            }
+
+            return response;
+        }
+
+        private Endpoint pick(boolean write) {
+            int totalWeight = 0;
+
+            for (Endpoint endpoint : Endpoint.values()) {
+                totalWeight += endpoint.write == write ? endpoint.weight : 0;
+            }
+
+            int choice = random.nextInt(totalWeight);
+
+            for (Endpoint endpoint : Endpoint.values()) {
+                if (endpoint.write != write) {
+                    continue;
+                }
+
+                choice -= endpoint.weight;
+
+                if (choice < 0) {
+                    return endpoint;
+                }
+            }
+
+            throw new IllegalStateException("Endpoint weights don't add up");
+        }
+
+        private HttpRequest request(Endpoint endpoint) throws IOException {
+            return switch (endpoint) {
+                case GET_ALL -> get("/device");
+                case GET_PAGE -> get("/device/page?limit=100&cursor=" + pageCursor(randomOf(generator.getAccessPoints())));
+                case EXPORT -> get("/device/export");
+                case GET_TOPOLOGY -> get("/device/topology");
+                case GET_SIMPLE_TOPOLOGY -> {
+                    HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve("/device/topology/simple")).GET();
+
+                    if (simpleTopologyEtag != null) {
+                        builder.header("If-None-Match", simpleTopologyEtag);
+                    }
+
+                    yield builder.build();
+                }
+                case GET_DEVICE -> get("/device/" + randomOf(macAddresses));
+                case GET_DEVICE_TOPOLOGY -> get("/device/" + randomOf(generator.getSwitches()) + "/topology?maxDepth=2");
+                case PUT -> {
+                    // moves one of the worker's access points under another switch
+                    NetworkDeviceDTO accessPoint = devices.get(randomOf(ownAccessPoints));
+                    yield put("/device", new NetworkDeviceDTO(accessPoint.getMacAddress(), randomOf(generator.getSwitches()), accessPoint.getType(), accessPoint.getFriendlyName()));
+                }
+                case PUT_BATCH -> {
+                    List<NetworkDeviceDTO> renamed = new ArrayList<>(RENAME_BATCH_SIZE);
+
+                    for (int i = 0; i < RENAME_BATCH_SIZE; i++) {
+                        NetworkDeviceDTO accessPoint = devices.get(randomOf(ownAccessPoints));
+                        renamed.add(new NetworkDeviceDTO(accessPoint.getMacAddress(), accessPoint.getUplink(), accessPoint.getType(), "AP " + random.nextInt(1000)));
+                    }
+
+                    yield put("/device/batch", renamed);
+                }
+                case DELETE -> HttpRequest.newBuilder(baseUri.resolve("/device/" + randomOf(ownAccessPoints))).DELETE().build();
+            };
+        }
+
+        private String randomOf(List<String> macAddresses) {
+            return macAddresses.get(random.nextInt(macAddresses.size()));
+        }
+
+        private String pageCursor(String macAddress) {
+            String position = String.format("%s/%s", NetworkDeviceType.ACCESS_POINT, macAddress);
+
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Latencies of a single endpoint, in nanoseconds
+     */
+    private static class Latencies {
+        private long[] values = new long[1024];
+
+        private int size;
+
+        private long errors;
+
+        private void add(long latency) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = latency;
+        }
+
+        private void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+
+            errors += other.errors;
+        }
+
+        private void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        // nearest-rank percentile, must be sorted first
+        private long percentile(double percentile) {
+            return size == 0 ? 0 : values[Math.max(0, (int) Math.ceil(percentile * size) - 1)];
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package io.sjohnson.ubnttask.loadtest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Starts the application over and over in each startup mode, and reports the time from launching the JVM to the first
+ * successful GET /device. Expects the startup profile to be built, which the Gradle task takes care of:
+ * ./gradlew startupBenchmark -PfastStartup -Pargs="--runs=10 --database=sample_db.h2.mv.db"
+ * <p>
+ * Every run starts on a fresh copy of the database, or on an empty one if none is given, so runs don't affect each
+ * other. Warmup runs are left out of the results, so that every mode starts with the jars in the page cache
+ */
+public class StartupBenchmark {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    enum Mode {
+        DEFAULT("default", false, false, false),
+        LAZY("lazy initialization", false, false, true),
+        AOT("AOT", true, false, false),
+        AOT_CDS("AOT + CDS", true, true, false),
+        AOT_CDS_LAZY("AOT + CDS + lazy initialization", true, true, true);
+
+        final String label;
+
+        final boolean aot;
+
+        final boolean cds;
+
+        final boolean lazy;
+
+        Mode(String label, boolean aot, boolean cds, boolean lazy) {
+            this.label = label;
+            this.aot = aot;
+            this.cds = cds;
+            this.lazy = lazy;
+        }
+    }
+
+    private final Path java;
+
+    private final Path directory;
+
+    private final Path database;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    public StartupBenchmark(Path java, Path directory, Path database) {
+        this.java = java;
+        this.directory = directory;
+        this.database = database;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = Arguments.parse(args);
+        Path java = Path.of(arguments.getOrDefault("java", "java"));
+        Path directory = Path.of(arguments.getOrDefault("directory", "build/startup"));
+        Path database = arguments.containsKey("database") ? Path.of(arguments.get("database")).toAbsolutePath() : null;
+        int warmup = Integer.parseInt(arguments.getOrDefault("warmup", "1"));
+        int runs = Integer.parseInt(arguments.getOrDefault("runs", "5"));
+
+        StartupBenchmark benchmark = new StartupBenchmark(java, directory, database);
+        Map<Mode, List<Long>> results = new EnumMap<>(Mode.class);
+
+        for (Mode mode : Mode.values()) {
+            System.out.printf("Starting %s %d times%n", mode.label, warmup + runs);
+
+            for (int i = 0; i < warmup; i++) {
+                benchmark.run(mode);
+            }
+
+            for (int i = 0; i < runs; i++) {
+                results.computeIfAbsent(mode, (key) -> new ArrayList<>()).add(benchmark.run(mode));
+            }
+        }
+
+        report(results);
+    }
+
+    /**
+     * @param mode startup mode
+     * @return milliseconds from launching the JVM to the first successful GET /device
+     */
+    private long run(Mode mode) throws IOException, InterruptedException {
+        Path runDirectory = Files.createTempDirectory("startup-benchmark");
+        int port = freePort();
+
+        if (database != null) {
+            Files.copy(database, runDirectory.resolve("database.h2.mv.db"));
+        }
+
+        long start = System.nanoTime();
+        Process process = start(mode, runDirectory, port, "");
+
+        try {
+            awaitFirstGet(process, port, runDirectory);
+
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            stop(process);
+            deleteRecursively(runDirectory);
+        }
+    }
+
+    /**
+     * Launches the application in a startup mode, logging to application.log in the run directory
+     *
+     * @param runDirectory directory the database, audit log and application log are kept in
+     * @param snapshotFile topology snapshot file, or empty to start without one
+     * @return the application's process
+     */
+    Process start(Mode mode, Path runDirectory, int port, String snapshotFile) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(java.toString());
+
+        if (mode.cds) {
+            command.add("-XX:SharedArchiveFile=ubnt-task.jsa");
+        }
+
+        if (mode.aot) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+
+        command.addAll(List.of(
+                "-jar", "ubnt-task.jar",
+                "--server.port=" + port,
+                "--spring.datasource.url=jdbc:h2:file:" + runDirectory.resolve("database.h2"),
+                "--audit-log.file=" + runDirectory.resolve("audit.log"),
+                "--topology-snapshot.file=" + snapshotFile,
+                "--spring.main.lazy-initialization=" + mode.lazy,
+                "--logging.level.root=WARN"));
+
+        return new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(runDirectory.resolve("application.log").toFile())
+                .start();
+    }
+
+    void awaitFirstGet(Process process, int port, Path runDirectory) throws IOException, InterruptedException {
+        Path log = runDirectory.resolve("application.log");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(String.format("http://localhost:%d/device", port))).GET().build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException(String.format("Application exited with %d:%n%s", process.exitValue(), Files.readString(log)));
+            }
+
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (ConnectException e) {
+                // not listening yet
+            }
+
+            Thread.sleep(POLL_INTERVAL);
+        }
+
+        throw new IllegalStateException(String.format("Application didn't serve GET /device within %ds", STARTUP_TIMEOUT.toSeconds()));
+    }
+
+    private static void report(Map<Mode, List<Long>> results) {
+        System.out.printf("%n%-34s %8s %8s %8s%n", "Mode", "min", "median", "max");
+
+        results.forEach((mode, milliseconds) -> {
+            List<Long> sorted = milliseconds.stream().sorted().toList();
+            System.out.printf("%-34s %6dms %6dms %6dms%n", mode.label, sorted.get(0), sorted.get(sorted.size() / 2), sorted.get(sorted.size() - 1));
+        });
+    }
+
+    static void stop(Process process) throws InterruptedException {
+        process.destroy();
+
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((path) -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
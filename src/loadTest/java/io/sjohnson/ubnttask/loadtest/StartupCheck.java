@@ -0,0 +1,66 @@
+package io.sjohnson.ubnttask.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the startup profile with AOT, CDS and lazy initialization, and checks that it serves GET /device with the
+ * application's background threads running. No request needs the topology snapshot writer, so its thread only runs if
+ * the AOT-processed context keeps the beans LazyInitializationConfiguration excludes eager. Run by the check task of
+ * the startup profile: ./gradlew check -PfastStartup
+ */
+public class StartupCheck {
+    // started by NetworkDeviceService, NetworkTopologySnapshotWriter and AuditLog once created
+    private static final List<String> EAGER_THREADS = List.of(
+            "network-device-group-commit-0", "topology-snapshot-writer", "audit-log-writer");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = Arguments.parse(args);
+        Path java = Path.of(arguments.getOrDefault("java", "java"));
+        Path directory = Path.of(arguments.getOrDefault("directory", "build/startup"));
+
+        StartupBenchmark benchmark = new StartupBenchmark(java, directory, null);
+        Path runDirectory = Files.createTempDirectory("startup-check");
+        int port = StartupBenchmark.freePort();
+        Process process = benchmark.start(StartupBenchmark.Mode.AOT_CDS_LAZY, runDirectory, port,
+                runDirectory.resolve("topology.snapshot").toString());
+
+        try {
+            benchmark.awaitFirstGet(process, port, runDirectory);
+            String threads = threadDump(java, process);
+
+            List<String> missing = EAGER_THREADS.stream()
+                    .filter((name) -> !threads.contains(String.format("\"%s\"", name)))
+                    .toList();
+
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException(String.format("Threads %s aren't running after startup:%n%s", missing, threads));
+            }
+
+            System.out.printf("%s started with threads %s%n", StartupBenchmark.Mode.AOT_CDS_LAZY.label, EAGER_THREADS);
+        } finally {
+            StartupBenchmark.stop(process);
+            StartupBenchmark.deleteRecursively(runDirectory);
+        }
+    }
+
+    private static String threadDump(Path java, Process process) throws IOException, InterruptedException {
+        Path jcmd = java.resolveSibling("jcmd");
+        Process dump = new ProcessBuilder(jcmd.toString(), Long.toString(process.pid()), "Thread.print")
+                .redirectErrorStream(true)
+                .start();
+
+        String output = new String(dump.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        if (!dump.waitFor(30, TimeUnit.SECONDS) || dump.exitValue() != 0) {
+            throw new IllegalStateException(String.format("Couldn't dump the threads of the application:%n%s", output));
+        }
+
+        return output;
+    }
+}
@@ -0,0 +1,116 @@
+package io.sjohnson.ubnttask.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a forest of gateways, each with switches branching out and daisy-chaining below it, and access points
+ * fanning out from every gateway and switch. The same shape always generates the same topology.
+ * <p>
+ * Run on its own, it writes the topology as JSON, ready to be PUT to /device/batch:
+ * ./gradlew generateTopology -Pargs="--size=100000 --out=topology.json"
+ */
+public class TopologyGenerator {
+    // generated MAC addresses are locally administered, so they can't clash with real devices
+    private static final long FIRST_MAC_ADDRESS = 0x0200_0000_0000L;
+
+    private final TopologyShape shape;
+
+    private final Random random;
+
+    private final List<NetworkDeviceDTO> devices = new ArrayList<>();
+
+    private final List<String> switches = new ArrayList<>();
+
+    private final List<String> accessPoints = new ArrayList<>();
+
+    public TopologyGenerator(TopologyShape shape) {
+        this.shape = shape;
+        this.random = new Random(shape.seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = Arguments.parse(args);
+        TopologyShape shape = new TopologyShape(arguments);
+        File out = new File(arguments.getOrDefault("out", "topology.json"));
+
+        TopologyGenerator generator = new TopologyGenerator(shape);
+        new ObjectMapper().writeValue(out, generator.generate());
+
+        System.out.printf("Generated %d devices (%s) into %s%n", generator.devices.size(), shape, out);
+    }
+
+    /**
+     * @return devices, uplinks before their downlinks
+     */
+    public List<NetworkDeviceDTO> generate() {
+        while (devices.size() < shape.size) {
+            generateGateway(Math.min(shape.devicesPerGateway, shape.size - devices.size()));
+        }
+
+        return devices;
+    }
+
+    /**
+     * @return MAC addresses of the generated switches
+     */
+    public List<String> getSwitches() {
+        return switches;
+    }
+
+    /**
+     * @return MAC addresses of the generated access points
+     */
+    public List<String> getAccessPoints() {
+        return accessPoints;
+    }
+
+    private void generateGateway(int quota) {
+        int end = devices.size() + quota;
+        String gateway = add(null, NetworkDeviceType.GATEWAY, "Gateway");
+
+        // uplink => its depth, breadth first, so every level gets devices before the next one
+        Deque<Map.Entry<String, Integer>> pending = new ArrayDeque<>();
+        pending.add(Map.entry(gateway, 0));
+
+        while (devices.size() < end && !pending.isEmpty()) {
+            Map.Entry<String, Integer> uplink = pending.poll();
+            String uplinkMacAddress = uplink.getKey();
+            int depth = uplink.getValue();
+
+            for (int i = random.nextInt(shape.accessPointFanOut + 1); i > 0 && devices.size() < end; i--) {
+                accessPoints.add(add(uplinkMacAddress, NetworkDeviceType.ACCESS_POINT, "AP"));
+            }
+
+            if (depth >= shape.maxDepth) {
+                continue;
+            }
+
+            int downlinkSwitches = depth > 0 && random.nextDouble() < shape.chainProbability ? 1 : 1 + random.nextInt(shape.switchFanOut);
+
+            for (int i = 0; i < downlinkSwitches && devices.size() < end; i++) {
+                String switchMacAddress = add(uplinkMacAddress, NetworkDeviceType.SWITCH, "Switch");
+                switches.add(switchMacAddress);
+                pending.add(Map.entry(switchMacAddress, depth + 1));
+            }
+        }
+    }
+
+    private String add(String uplink, NetworkDeviceType type, String name) {
+        String macAddress = MacAddress.of(FIRST_MAC_ADDRESS + devices.size()).toString();
+        devices.add(new NetworkDeviceDTO(macAddress, uplink, type.toString(), String.format("%s %d", name, devices.size())));
+
+        return macAddress;
+    }
+}
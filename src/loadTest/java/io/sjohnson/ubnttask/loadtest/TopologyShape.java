@@ -0,0 +1,44 @@
+package io.sjohnson.ubnttask.loadtest;
+
+import java.util.Map;
+
+/**
+ * Shape of a generated topology. Every parameter can be given on the command line as --name=value
+ */
+public class TopologyShape {
+    // total number of devices
+    final int size;
+
+    final long seed;
+
+    // number of devices below a single gateway, including it
+    final int devicesPerGateway;
+
+    // number of switch levels below a gateway
+    final int maxDepth;
+
+    // maximum number of switches connected to a gateway or switch
+    final int switchFanOut;
+
+    // maximum number of access points connected to a gateway or switch
+    final int accessPointFanOut;
+
+    // chance that a switch gets a single switch below it, growing a daisy chain
+    final double chainProbability;
+
+    TopologyShape(Map<String, String> arguments) {
+        this.size = Integer.parseInt(arguments.getOrDefault("size", "10000"));
+        this.seed = Long.parseLong(arguments.getOrDefault("seed", "24301"));
+        this.devicesPerGateway = Integer.parseInt(arguments.getOrDefault("devices-per-gateway", "500"));
+        this.maxDepth = Integer.parseInt(arguments.getOrDefault("max-depth", "12"));
+        this.switchFanOut = Integer.parseInt(arguments.getOrDefault("switch-fan-out", "4"));
+        this.accessPointFanOut = Integer.parseInt(arguments.getOrDefault("access-point-fan-out", "24"));
+        this.chainProbability = Double.parseDouble(arguments.getOrDefault("chain-probability", "0.3"));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d, seed=%d, devices-per-gateway=%d, max-depth=%d, switch-fan-out=%d, access-point-fan-out=%d, chain-probability=%.2f",
+                size, seed, devicesPerGateway, maxDepth, switchFanOut, accessPointFanOut, chainProbability);
+    }
+}
@@ -0,0 +1,19 @@
+package io.sjohnson.ubnttask;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * With spring.main.lazy-initialization, only beans off the request path are created on first use, such as actuator
+ * endpoints and infrastructure no request needs. The application's own beans are still created on startup, so that
+ * the topology index is loaded and the background writers run before the first request
+ */
+@Configuration
+public class LazyInitializationConfiguration {
+    // static, so that it's found before any other bean is created
+    @Bean
+    public static LazyInitializationExcludeFilter applicationBeansExcludeFilter() {
+        return (beanName, beanDefinition, beanType) -> beanType.getPackageName().startsWith(UbntTaskApplication.class.getPackageName());
+    }
+}
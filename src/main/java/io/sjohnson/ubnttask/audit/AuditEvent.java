@@ -0,0 +1,56 @@
+package io.sjohnson.ubnttask.audit;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+/**
+ * A single audit log record. Only the fields relevant to the action are set, the rest are left null
+ */
+class AuditEvent {
+    enum Action {
+        DEVICE_SAVED,
+        DEVICE_REJECTED,
+        BATCH_SAVED,
+        DEVICE_DELETED,
+        SUBTREE_DELETED,
+        EVENTS_DROPPED
+    }
+
+    final long timestamp;
+
+    final Action action;
+
+    final MacAddress macAddress;
+
+    final MacAddress uplink;
+
+    final String type;
+
+    final String friendlyName;
+
+    final String message;
+
+    final Long saved;
+
+    final Long rejected;
+
+    final Long deleted;
+
+    final Long orphaned;
+
+    final Long dropped;
+
+    AuditEvent(long timestamp, Action action, MacAddress macAddress, MacAddress uplink, String type, String friendlyName, String message, Long saved, Long rejected, Long deleted, Long orphaned, Long dropped) {
+        this.timestamp = timestamp;
+        this.action = action;
+        this.macAddress = macAddress;
+        this.uplink = uplink;
+        this.type = type;
+        this.friendlyName = friendlyName;
+        this.message = message;
+        this.saved = saved;
+        this.rejected = rejected;
+        this.deleted = deleted;
+        this.orphaned = orphaned;
+        this.dropped = dropped;
+    }
+}
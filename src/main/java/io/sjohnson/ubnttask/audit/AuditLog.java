@@ -0,0 +1,216 @@
+package io.sjohnson.ubnttask.audit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.entities.NetworkDevice;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Audit log of the changes made to the device topology, written as one JSON object per line to an append-only file.
+ * <p>
+ * Recording an event only puts it into a lock-free ring buffer, so request threads never wait on the disk or on each
+ * other. A background thread drains the buffer in batches and flushes the file once per batch. When the writer falls
+ * behind and the buffer fills up, events are dropped according to the overflow policy, and the number of dropped
+ * events is recorded in the log
+ */
+@Component
+public class AuditLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditLog.class);
+
+    // how long the writer sleeps when there is nothing to write
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final AuditRingBuffer<AuditEvent> buffer;
+
+    private final AuditOverflowPolicy overflowPolicy;
+
+    private final int batchSize;
+
+    private final Writer writer;
+
+    private final JsonGenerator generator;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writerThread = new Thread(this::drain, "audit-log-writer");
+
+    private volatile boolean running = true;
+
+    public AuditLog(@Value("${audit-log.file:audit.log}") String file,
+                    @Value("${audit-log.buffer-size:8192}") int bufferSize,
+                    @Value("${audit-log.overflow-policy:DROP_NEWEST}") AuditOverflowPolicy overflowPolicy,
+                    @Value("${audit-log.batch-size:256}") int batchSize) throws IOException {
+        this.buffer = new AuditRingBuffer<>(bufferSize);
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+
+        Path path = Path.of(file);
+
+        if (nonNull(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.generator = new JsonFactory().createGenerator(writer);
+        generator.setRootValueSeparator(null);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @PostConstruct
+    public void start() {
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops accepting events, waits for the buffered ones to be written and closes the file
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(10));
+
+        generator.close();
+        writer.close();
+    }
+
+    /**
+     * @param device device as it was saved
+     */
+    public void deviceSaved(NetworkDevice device) {
+        record(new AuditEvent(System.currentTimeMillis(), AuditEvent.Action.DEVICE_SAVED, device.getMacAddress(), device.getUplink(), device.getType(), device.getFriendlyName(), null, null, null, null, null, null));
+    }
+
+    /**
+     * @param macAddress MAC address of the device that wasn't saved
+     * @param message    reason it was rejected
+     */
+    public void deviceRejected(MacAddress macAddress, String message) {
+        record(new AuditEvent(System.currentTimeMillis(), AuditEvent.Action.DEVICE_REJECTED, macAddress, null, null, null, message, null, null, null, null, null));
+    }
+
+    /**
+     * @param saved    number of devices saved in the batch
+     * @param rejected number of devices rejected from the batch
+     */
+    public void batchSaved(int saved, int rejected) {
+        record(new AuditEvent(System.currentTimeMillis(), AuditEvent.Action.BATCH_SAVED, null, null, null, null, null, (long) saved, (long) rejected, null, null, null));
+    }
+
+    /**
+     * @param macAddress MAC address of the deleted device
+     * @param orphaned   number of its downlinks that became root devices
+     */
+    public void deviceDeleted(MacAddress macAddress, long orphaned) {
+        record(new AuditEvent(System.currentTimeMillis(), AuditEvent.Action.DEVICE_DELETED, macAddress, null, null, null, null, null, null, null, orphaned, null));
+    }
+
+    /**
+     * @param macAddress MAC address of the deleted subtree's root device
+     * @param deleted    number of deleted devices, including the root device
+     */
+    public void subtreeDeleted(MacAddress macAddress, long deleted) {
+        record(new AuditEvent(System.currentTimeMillis(), AuditEvent.Action.SUBTREE_DELETED, macAddress, null, null, null, null, null, null, deleted, null, null));
+    }
+
+    private void record(AuditEvent event) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        while (!buffer.offer(event)) {
+            if (overflowPolicy == AuditOverflowPolicy.DROP_NEWEST) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            // make room by discarding the oldest event, unless the writer emptied the buffer in the meantime
+            if (nonNull(buffer.poll())) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            // read before draining, so that nothing recorded before stop() is left behind
+            boolean stopping = !running;
+            int written = 0;
+
+            try {
+                for (AuditEvent event = buffer.poll(); nonNull(event); event = written < batchSize ? buffer.poll() : null) {
+                    write(event);
+                    written++;
+                }
+
+                long droppedEvents = dropped.getAndSet(0);
+
+                if (droppedEvents > 0) {
+                    write(new AuditEvent(System.currentTimeMillis(), AuditEvent.Action.EVENTS_DROPPED, null, null, null, null, null, null, null, null, null, droppedEvents));
+                    written++;
+                }
+
+                if (written > 0) {
+                    generator.flush();
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to write audit log", e);
+            }
+
+            if (stopping && written == 0) {
+                return;
+            }
+
+            if (written == 0) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+        }
+    }
+
+    private void write(AuditEvent event) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("timestamp", Instant.ofEpochMilli(event.timestamp).toString());
+        generator.writeStringField("action", event.action.toString());
+        writeField("macAddress", event.macAddress);
+        writeField("uplink", event.uplink);
+        writeField("type", event.type);
+        writeField("friendlyName", event.friendlyName);
+        writeField("message", event.message);
+        writeField("saved", event.saved);
+        writeField("rejected", event.rejected);
+        writeField("deleted", event.deleted);
+        writeField("orphaned", event.orphaned);
+        writeField("dropped", event.dropped);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void writeField(String name, Object value) throws IOException {
+        if (value instanceof Long number) {
+            generator.writeNumberField(name, number);
+        } else if (nonNull(value)) {
+            generator.writeStringField(name, value.toString());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package io.sjohnson.ubnttask.audit;
+
+/**
+ * What happens to an audit event when the buffer is full because the writer can't keep up
+ */
+public enum AuditOverflowPolicy {
+    // the new event is discarded
+    DROP_NEWEST,
+
+    // the oldest buffered event is discarded to make room for the new one
+    DROP_OLDEST
+}
@@ -0,0 +1,108 @@
+package io.sjohnson.ubnttask.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue backed by a ring of slots. Every slot carries a sequence number telling whether it's ready
+ * to be written or read in the current lap, so producers and consumers only ever compete on a single CAS and never
+ * wait for each other
+ *
+ * @param <T> type of the elements
+ */
+class AuditRingBuffer<T> {
+    private final int mask;
+
+    private final AtomicReferenceArray<T> elements;
+
+    private final AtomicLongArray sequences;
+
+    // position of the next element to be read
+    private final AtomicLong head = new AtomicLong();
+
+    // position of the next element to be written
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity minimum number of elements the buffer holds, rounded up to a power of two
+     */
+    AuditRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException(String.format("Invalid ring buffer capacity: %d", capacity));
+        }
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 1);
+
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param element element to be added
+     * @return whether it was added, false if the buffer is full
+     */
+    boolean offer(T element) {
+        long position = tail.get();
+
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(slot, element);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot still holds an element from the previous lap
+                return false;
+            } else {
+                // another producer took the slot
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element, or null if the buffer is empty
+     */
+    T poll() {
+        long position = head.get();
+
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - (position + 1);
+
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T element = elements.get(slot);
+                    elements.set(slot, null);
+                    sequences.set(slot, position + mask + 1);
+                    return element;
+                }
+
+                position = head.get();
+            } else if (difference < 0) {
+                // the slot hasn't been written in this lap yet
+                return null;
+            } else {
+                // another consumer took the element
+                position = head.get();
+            }
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,149 @@
+package io.sjohnson.ubnttask.constructs;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+
+/**
+ * 48-bit MAC address packed into a long, so that keys, joins and in-memory maps don't pay for a 17-character string.
+ * Its textual form, also used on the wire, is 12:34:56:78:90:ab
+ */
+public final class MacAddress implements Comparable<MacAddress>, Serializable {
+    private static final int LENGTH = 17;
+    private static final long MASK = 0xFFFF_FFFF_FFFFL;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long value;
+
+    private MacAddress(long value) {
+        this.value = value;
+    }
+
+    /**
+     * @param value MAC address packed into the lower 48 bits
+     * @return the MAC address
+     */
+    public static MacAddress of(long value) {
+        if ((value & ~MASK) != 0) {
+            throw new IllegalArgumentException(String.format("Not a 48-bit MAC address: %d", value));
+        }
+
+        return new MacAddress(value);
+    }
+
+    /**
+     * @param macAddress MAC address formatted as 12:34:56:78:90:ab, with lowercase hex digits, as isValid() accepts
+     * @return the MAC address
+     * @throws IllegalArgumentException MAC address is malformed
+     */
+    @JsonCreator
+    public static MacAddress parse(String macAddress) {
+        if (macAddress.length() != LENGTH) {
+            throw new IllegalArgumentException(String.format("Invalid MAC address: %s", macAddress));
+        }
+
+        long value = 0;
+
+        for (int i = 0; i < LENGTH; i++) {
+            char c = macAddress.charAt(i);
+
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    throw new IllegalArgumentException(String.format("Invalid MAC address: %s", macAddress));
+                }
+
+                continue;
+            }
+
+            int digit = hexDigit(c);
+
+            if (digit < 0) {
+                throw new IllegalArgumentException(String.format("Invalid MAC address: %s", macAddress));
+            }
+
+            value = (value << 4) | digit;
+        }
+
+        return new MacAddress(value);
+    }
+
+    /**
+     * Checks the format in a single pass without allocating, accepting exactly what NetworkDevice.MAC_ADDRESS_REGEXP
+     * accepts
+     *
+     * @param macAddress candidate MAC address
+     * @return whether it's formatted as 12:34:56:78:90:ab, with lowercase hex digits
+     */
+    public static boolean isValid(CharSequence macAddress) {
+        if (macAddress.length() != LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < LENGTH; i++) {
+            char c = macAddress.charAt(i);
+            boolean valid = i % 3 == 2 ? c == ':' : hexDigit(c) >= 0;
+
+            if (!valid) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // only lowercase ASCII hex digits, unlike Character.digit(), which also takes uppercase and other scripts' digits
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return MAC address packed into the lower 48 bits
+     */
+    public long toLong() {
+        return value;
+    }
+
+    @JsonValue
+    @Override
+    public String toString() {
+        char[] chars = new char[LENGTH];
+        int shift = 44;
+
+        for (int i = 0; i < LENGTH; i++) {
+            if (i % 3 == 2) {
+                chars[i] = ':';
+                continue;
+            }
+
+            chars[i] = HEX_DIGITS[(int) (value >>> shift) & 0xF];
+            shift -= 4;
+        }
+
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof MacAddress macAddress && macAddress.value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    // numeric order matches the order of the textual form
+    @Override
+    public int compareTo(MacAddress other) {
+        return Long.compare(value, other.value);
+    }
+}
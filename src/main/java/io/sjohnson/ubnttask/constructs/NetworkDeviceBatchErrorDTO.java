@@ -0,0 +1,28 @@
+package io.sjohnson.ubnttask.constructs;
+
+public class NetworkDeviceBatchErrorDTO {
+    private final int index;
+    private final String macAddress;
+    private final String message;
+
+    public NetworkDeviceBatchErrorDTO(int index, String macAddress, String message) {
+        this.index = index;
+        this.macAddress = macAddress;
+        this.message = message;
+    }
+
+    /**
+     * @return position of the rejected device in the submitted batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getMacAddress() {
+        return macAddress;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,24 @@
+package io.sjohnson.ubnttask.constructs;
+
+import java.util.List;
+
+public class NetworkDeviceBatchResultDTO {
+    private final List<NetworkDeviceDTO> saved;
+    private final List<NetworkDeviceBatchErrorDTO> errors;
+
+    public NetworkDeviceBatchResultDTO(List<NetworkDeviceDTO> saved, List<NetworkDeviceBatchErrorDTO> errors) {
+        this.saved = saved;
+        this.errors = errors;
+    }
+
+    /**
+     * @return saved devices, uplinks before their downlinks
+     */
+    public List<NetworkDeviceDTO> getSaved() {
+        return saved;
+    }
+
+    public List<NetworkDeviceBatchErrorDTO> getErrors() {
+        return errors;
+    }
+}
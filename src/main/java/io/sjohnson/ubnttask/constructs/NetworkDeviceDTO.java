@@ -1,17 +1,17 @@
 package io.sjohnson.ubnttask.constructs;
 
+import io.sjohnson.ubnttask.validators.MacAddressFormat;
 import io.sjohnson.ubnttask.validators.ValueOfEnum;
 import jakarta.validation.constraints.NotNull;
-import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 
 import static io.sjohnson.ubnttask.entities.NetworkDevice.*;
 
 public class NetworkDeviceDTO {
-    @Pattern(regexp = MAC_ADDRESS_REGEXP, message = MAC_INVALID_MESSAGE)
+    @MacAddressFormat(message = MAC_INVALID_MESSAGE)
     @NotNull(message = MAC_NOT_PROVIDED_MESSAGE)
     private String macAddress;
-    @Pattern(regexp = MAC_ADDRESS_REGEXP, message = MAC_INVALID_MESSAGE)
+    @MacAddressFormat(message = MAC_INVALID_MESSAGE)
     private String uplink;
     @ValueOfEnum(enumClass = NetworkDeviceType.class, message = NetworkDeviceType.NOT_IN_ENUM_ERROR)
     private String type;
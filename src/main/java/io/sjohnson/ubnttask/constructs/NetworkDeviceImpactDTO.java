@@ -0,0 +1,42 @@
+package io.sjohnson.ubnttask.constructs;
+
+import java.util.Map;
+
+public class NetworkDeviceImpactDTO {
+    private final String macAddress;
+    private final int devicesBelow;
+    private final Map<String, Integer> devicesBelowByType;
+    private final int maxDepthBelow;
+
+    public NetworkDeviceImpactDTO(String macAddress, int devicesBelow, Map<String, Integer> devicesBelowByType, int maxDepthBelow) {
+        this.macAddress = macAddress;
+        this.devicesBelow = devicesBelow;
+        this.devicesBelowByType = devicesBelowByType;
+        this.maxDepthBelow = maxDepthBelow;
+    }
+
+    public String getMacAddress() {
+        return macAddress;
+    }
+
+    /**
+     * @return number of devices in the subtree below the device, which lose their uplink if it goes down
+     */
+    public int getDevicesBelow() {
+        return devicesBelow;
+    }
+
+    /**
+     * @return type => number of devices of that type below the device, for every type
+     */
+    public Map<String, Integer> getDevicesBelowByType() {
+        return devicesBelowByType;
+    }
+
+    /**
+     * @return number of levels below the device, 0 if it has no downlinks
+     */
+    public int getMaxDepthBelow() {
+        return maxDepthBelow;
+    }
+}
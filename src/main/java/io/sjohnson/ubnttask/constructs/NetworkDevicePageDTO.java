@@ -0,0 +1,24 @@
+package io.sjohnson.ubnttask.constructs;
+
+import java.util.List;
+
+public class NetworkDevicePageDTO {
+    private final List<NetworkDeviceDTO> devices;
+    private final String nextCursor;
+
+    public NetworkDevicePageDTO(List<NetworkDeviceDTO> devices, String nextCursor) {
+        this.devices = devices;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<NetworkDeviceDTO> getDevices() {
+        return devices;
+    }
+
+    /**
+     * @return cursor of the next page, or null if this is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
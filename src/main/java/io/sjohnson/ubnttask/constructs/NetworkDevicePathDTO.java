@@ -0,0 +1,28 @@
+package io.sjohnson.ubnttask.constructs;
+
+import java.util.List;
+
+public class NetworkDevicePathDTO {
+    private final List<NetworkDeviceDTO> hops;
+    private final NetworkDeviceDTO lowestCommonAncestor;
+
+    public NetworkDevicePathDTO(List<NetworkDeviceDTO> hops, NetworkDeviceDTO lowestCommonAncestor) {
+        this.hops = hops;
+        this.lowestCommonAncestor = lowestCommonAncestor;
+    }
+
+    /**
+     * @return devices along the path, starting with the first device and ending with the other one. Up the uplinks
+     * to their lowest common ancestor, then down to the other device
+     */
+    public List<NetworkDeviceDTO> getHops() {
+        return hops;
+    }
+
+    /**
+     * @return the deepest device both devices are at or below
+     */
+    public NetworkDeviceDTO getLowestCommonAncestor() {
+        return lowestCommonAncestor;
+    }
+}
@@ -0,0 +1,32 @@
+package io.sjohnson.ubnttask.constructs;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class NetworkDeviceTopologyDTO extends NetworkDeviceDTO {
+    private final List<NetworkDeviceTopologyDTO> downlinks = new ArrayList<>();
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String downlinksCursor;
+
+    public NetworkDeviceTopologyDTO(NetworkDeviceDTO device) {
+        super(device.getMacAddress(), device.getUplink(), device.getType(), device.getFriendlyName());
+    }
+
+    public List<NetworkDeviceTopologyDTO> getDownlinks() {
+        return downlinks;
+    }
+
+    /**
+     * @return cursor to fetch the rest of the downlinks with, or null if none were left out by maxDepth or maxChildren
+     */
+    public String getDownlinksCursor() {
+        return downlinksCursor;
+    }
+
+    public void setDownlinksCursor(String downlinksCursor) {
+        this.downlinksCursor = downlinksCursor;
+    }
+}
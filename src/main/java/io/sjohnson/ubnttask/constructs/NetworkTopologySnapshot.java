@@ -0,0 +1,31 @@
+package io.sjohnson.ubnttask.constructs;
+
+/**
+ * Topology serialized as JSON, as it was at a given topology version
+ */
+public class NetworkTopologySnapshot {
+    private final long version;
+    private final String etag;
+    private final byte[] json;
+
+    public NetworkTopologySnapshot(long version, String etag, byte[] json) {
+        this.version = version;
+        this.etag = etag;
+        this.json = json;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return entity tag identifying this version of the topology, quoted as required in the ETag header
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+}
@@ -1,23 +1,40 @@
 package io.sjohnson.ubnttask.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceBatchResultDTO;
 import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
-import io.sjohnson.ubnttask.entities.NetworkDevice;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceImpactDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDevicePageDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDevicePathDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceTopologyDTO;
+import io.sjohnson.ubnttask.constructs.NetworkTopologySnapshot;
 import io.sjohnson.ubnttask.exceptions.DeviceCausesNetworkLoopException;
 import io.sjohnson.ubnttask.exceptions.InvalidNetworkDeviceException;
+import io.sjohnson.ubnttask.exceptions.InvalidPageCursorException;
+import io.sjohnson.ubnttask.exceptions.InvalidTopologySnapshotException;
 import io.sjohnson.ubnttask.services.NetworkDeviceService;
+import io.sjohnson.ubnttask.validators.MacAddressFormat;
 import jakarta.validation.Valid;
-import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.method.annotation.HandlerMethodValidationException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import static io.sjohnson.ubnttask.entities.NetworkDevice.MAC_ADDRESS_REGEXP;
 import static io.sjohnson.ubnttask.entities.NetworkDevice.MAC_INVALID_MESSAGE;
 
 
@@ -28,8 +45,11 @@ public class NetworkDeviceController {
     @Autowired
     private final NetworkDeviceService service;
 
-    public NetworkDeviceController(NetworkDeviceService service) {
+    private final ObjectMapper objectMapper;
+
+    public NetworkDeviceController(NetworkDeviceService service, ObjectMapper objectMapper) {
         this.service = service;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping("")
@@ -37,35 +57,116 @@ public class NetworkDeviceController {
         return service.getAll();
     }
 
+    @GetMapping("/page")
+    public NetworkDevicePageDTO page(@RequestParam(required = false) String cursor, @RequestParam(defaultValue = "100") @Min(1) @Max(1000) int limit) throws InvalidPageCursorException {
+        return service.getPage(cursor, limit);
+    }
+
+    // same as all(), except rows are written to the response as they're read from the database
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody export() {
+        return (outputStream) -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                service.forEachDevice((device) -> {
+                    try {
+                        generator.writeObject(device);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+    }
+
     @PutMapping("")
     public NetworkDeviceDTO createOrUpdateDevice(@Valid @RequestBody NetworkDeviceDTO newDeviceDto) throws InvalidNetworkDeviceException, DeviceCausesNetworkLoopException {
-        return service.save(newDeviceDto);
+        return service.upsert(newDeviceDto);
     }
 
+    // devices are validated one by one, so that a single invalid device doesn't reject the whole batch
+    @PutMapping("/batch")
+    public NetworkDeviceBatchResultDTO createOrUpdateDevices(@RequestBody List<NetworkDeviceDTO> newDeviceDtos) {
+        return service.saveAll(newDeviceDtos);
+    }
+
+    // without limits the whole topology is served from a cached snapshot
     @GetMapping("/topology")
-    public List<NetworkDevice> getTopology() {
-        return service.getTopology();
+    public ResponseEntity<?> getTopology(@RequestParam(required = false) @Min(0) Integer maxDepth, @RequestParam(required = false) @Min(1) Integer maxChildren, WebRequest request) {
+        if (maxDepth == null && maxChildren == null) {
+            return snapshotResponse(service.getTopologySnapshot(), request);
+        }
+
+        return ResponseEntity.ok(service.getTopology(unlimitedIfNull(maxDepth), unlimitedIfNull(maxChildren)));
     }
 
     // Task specifically states that the topology output should be a tree structure where node is represented as macAddress, this is just that and absolutely nothing more
     @GetMapping("/topology/simple")
-    public Map<String, Map<?, ?>> getSimpleTopology() {
-        return service.getSimpleTopology();
+    public ResponseEntity<byte[]> getSimpleTopology(WebRequest request) {
+        return snapshotResponse(service.getSimpleTopologySnapshot(), request);
+    }
+
+    // compact binary snapshot of the whole topology, as written to the topology snapshot file
+    @GetMapping(path = "/topology/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> exportTopologySnapshot() {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("topology.snapshot").build().toString())
+                .body(service.exportTopologySnapshot());
+    }
+
+    // merges the snapshot into the topology, same as PUT /device/batch
+    @PutMapping(path = "/topology/snapshot", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public NetworkDeviceBatchResultDTO importTopologySnapshot(@RequestBody byte[] snapshot) throws InvalidTopologySnapshotException {
+        return service.importTopologySnapshot(snapshot);
     }
 
     @GetMapping("/{macAddress}")
-    public NetworkDeviceDTO getDevice(@PathVariable @Pattern(regexp = MAC_ADDRESS_REGEXP, message = MAC_INVALID_MESSAGE) String macAddress) throws InvalidNetworkDeviceException {
+    public NetworkDeviceDTO getDevice(@PathVariable @MacAddressFormat(message = MAC_INVALID_MESSAGE) String macAddress) throws InvalidNetworkDeviceException {
         return service.findByMacAddress(macAddress);
     }
 
     @GetMapping("/{macAddress}/topology")
-    public NetworkDevice getTopologyStartingFromADevice(@PathVariable @Pattern(regexp = MAC_ADDRESS_REGEXP, message = MAC_INVALID_MESSAGE) String macAddress) throws InvalidNetworkDeviceException {
-        return service.getTopologyFromDevice(macAddress);
+    public NetworkDeviceTopologyDTO getTopologyStartingFromADevice(@PathVariable @MacAddressFormat(message = MAC_INVALID_MESSAGE) String macAddress,
+                                                                   @RequestParam(required = false) String cursor,
+                                                                   @RequestParam(required = false) @Min(0) Integer maxDepth,
+                                                                   @RequestParam(required = false) @Min(1) Integer maxChildren) throws InvalidNetworkDeviceException, InvalidPageCursorException {
+        return service.getTopologyFromDevice(macAddress, cursor, unlimitedIfNull(maxDepth), unlimitedIfNull(maxChildren));
+    }
+
+    // devices that would lose their uplink if the device went down
+    @GetMapping("/{macAddress}/impact")
+    public NetworkDeviceImpactDTO getImpact(@PathVariable @MacAddressFormat(message = MAC_INVALID_MESSAGE) String macAddress) throws InvalidNetworkDeviceException {
+        return service.getImpact(macAddress);
+    }
+
+    // hops go up the uplinks from the first device to the lowest common ancestor, then down to the other device
+    @GetMapping("/{macAddress}/path/{otherMacAddress}")
+    public NetworkDevicePathDTO getPath(@PathVariable @MacAddressFormat(message = MAC_INVALID_MESSAGE) String macAddress,
+                                        @PathVariable @MacAddressFormat(message = MAC_INVALID_MESSAGE) String otherMacAddress) throws InvalidNetworkDeviceException {
+        return service.getPath(macAddress, otherMacAddress);
     }
 
+    // with cascade=true the whole subtree below the device is deleted, otherwise its downlinks become root devices
     @DeleteMapping("/{macAddress}")
-    public void deleteDevice(@PathVariable @Pattern(regexp = MAC_ADDRESS_REGEXP, message = MAC_INVALID_MESSAGE) String macAddress) throws InvalidNetworkDeviceException {
-        service.delete(macAddress);
+    public void deleteDevice(@PathVariable @MacAddressFormat(message = MAC_INVALID_MESSAGE) String macAddress, @RequestParam(defaultValue = "false") boolean cascade) throws InvalidNetworkDeviceException {
+        service.delete(macAddress, cascade);
+    }
+
+    private static int unlimitedIfNull(Integer limit) {
+        return limit != null ? limit : Integer.MAX_VALUE;
+    }
+
+    // clients polling with the ETag they already have get an empty 304 Not Modified until the topology changes
+    private static ResponseEntity<byte[]> snapshotResponse(NetworkTopologySnapshot snapshot, WebRequest request) {
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getJson());
     }
 
     @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -92,6 +193,22 @@ public class NetworkDeviceController {
         return errors;
     }
 
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidPageCursorException.class)
+    public List<String> handleInvalidPageCursorException(InvalidPageCursorException ex) {
+        List<String> errors = new ArrayList<>();
+        errors.add(ex.getMessage());
+        return errors;
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidTopologySnapshotException.class)
+    public List<String> handleInvalidTopologySnapshotException(InvalidTopologySnapshotException ex) {
+        List<String> errors = new ArrayList<>();
+        errors.add(ex.getMessage());
+        return errors;
+    }
+
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler(HandlerMethodValidationException.class)
     public List<String> handleMethodValidationException(HandlerMethodValidationException ex) {
@@ -0,0 +1,75 @@
+package io.sjohnson.ubnttask.entities;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import org.hibernate.type.SqlTypes;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractClassJavaType;
+import org.hibernate.type.descriptor.jdbc.JdbcType;
+import org.hibernate.type.descriptor.jdbc.JdbcTypeIndicators;
+
+/**
+ * Stores MAC addresses as BIGINT. Unlike an AttributeConverter, a registered Java type also applies to identifiers,
+ * and therefore to the foreign keys referencing them
+ */
+public class MacAddressJavaType extends AbstractClassJavaType<MacAddress> {
+    public MacAddressJavaType() {
+        super(MacAddress.class);
+    }
+
+    @Override
+    public JdbcType getRecommendedJdbcType(JdbcTypeIndicators indicators) {
+        return indicators.getJdbcType(SqlTypes.BIGINT);
+    }
+
+    @Override
+    public String toString(MacAddress value) {
+        return value.toString();
+    }
+
+    @Override
+    public MacAddress fromString(CharSequence string) {
+        return MacAddress.parse(string.toString());
+    }
+
+    @Override
+    public <X> X unwrap(MacAddress value, Class<X> type, WrapperOptions options) {
+        if (value == null) {
+            return null;
+        }
+
+        if (type.isAssignableFrom(MacAddress.class)) {
+            return type.cast(value);
+        }
+
+        if (type.isAssignableFrom(Long.class)) {
+            return type.cast(value.toLong());
+        }
+
+        if (type.isAssignableFrom(String.class)) {
+            return type.cast(value.toString());
+        }
+
+        throw unknownUnwrap(type);
+    }
+
+    @Override
+    public <X> MacAddress wrap(X value, WrapperOptions options) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof MacAddress macAddress) {
+            return macAddress;
+        }
+
+        if (value instanceof Number number) {
+            return MacAddress.of(number.longValue());
+        }
+
+        if (value instanceof String string) {
+            return MacAddress.parse(string);
+        }
+
+        throw unknownWrap(value.getClass());
+    }
+}
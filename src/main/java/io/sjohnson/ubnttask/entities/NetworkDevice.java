@@ -1,28 +1,38 @@
 package io.sjohnson.ubnttask.entities;
 
+import io.sjohnson.ubnttask.constructs.MacAddress;
 import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
 import io.sjohnson.ubnttask.validators.ValueOfEnum;
 import jakarta.annotation.Nullable;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
-import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
+import org.hibernate.annotations.JavaTypeRegistration;
 
 import java.io.Serializable;
 import java.util.Collection;
 
 @Entity
+@JavaTypeRegistration(javaType = MacAddress.class, descriptorClass = MacAddressJavaType.class)
+@Table(indexes = {
+        @Index(name = "idx_network_device_type_mac_address", columnList = "type, macAddress"),
+        @Index(name = "idx_network_device_path", columnList = "path")
+})
 public class NetworkDevice implements Serializable {
     @SuppressWarnings({"RegExpSuspiciousBackref", "RegExpUnnecessaryNonCapturingGroup", "RegExpSimplifiable"})
     public static final String MAC_ADDRESS_REGEXP = "(?:[0-9a-f]{2}(?=([:]))(?:\\1[0-9a-f]{2}){5})";
     public static final String MAC_INVALID_MESSAGE = "MAC address must be formatted as 12:34:56:78:90:ab";
     public static final String MAC_NOT_PROVIDED_MESSAGE = "MAC address must be provided and formatted as 12:34:56:78:90:ab";
 
+    // levels from a root device, on level 1, down to the deepest device below it. Checked on save, as it bounds the path
+    public static final int MAX_DEPTH = 4096;
+
+    // every level adds a segment of 12 hex digits and a slash to the path
+    private static final int MAX_PATH_LENGTH = MAX_DEPTH * 13;
+
     @Id
-    @Pattern(regexp = MAC_ADDRESS_REGEXP, message = MAC_INVALID_MESSAGE)
     @NotNull(message = MAC_NOT_PROVIDED_MESSAGE)
-    @Column(length = 17)
-    private String macAddress;
+    private MacAddress macAddress;
 
     @Nullable
     @ManyToOne(fetch = FetchType.EAGER)
@@ -38,16 +48,20 @@ public class NetworkDevice implements Serializable {
     @OneToMany(mappedBy = "uplink", fetch = FetchType.LAZY)
     private Collection<NetworkDevice> downlinks;
 
-    public String getMacAddress() {
+    // materialized path from the root device down to this one, kept by the repository's JDBC writes, never by Hibernate
+    @Column(length = MAX_PATH_LENGTH, insertable = false, updatable = false)
+    private String path;
+
+    public MacAddress getMacAddress() {
         return macAddress;
     }
 
-    public void setMacAddress(String macAddress) {
+    public void setMacAddress(MacAddress macAddress) {
         this.macAddress = macAddress;
     }
 
     @Nullable
-    public String getUplink() {
+    public MacAddress getUplink() {
         return uplink != null ? uplink.macAddress : null;
     }
 
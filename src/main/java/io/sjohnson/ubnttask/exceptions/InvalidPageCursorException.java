@@ -0,0 +1,7 @@
+package io.sjohnson.ubnttask.exceptions;
+
+public class InvalidPageCursorException extends Exception {
+    public InvalidPageCursorException(String errorMessage) {
+        super(errorMessage);
+    }
+}
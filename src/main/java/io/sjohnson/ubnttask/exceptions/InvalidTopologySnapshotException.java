@@ -0,0 +1,7 @@
+package io.sjohnson.ubnttask.exceptions;
+
+public class InvalidTopologySnapshotException extends Exception {
+    public InvalidTopologySnapshotException(String errorMessage) {
+        super(errorMessage);
+    }
+}
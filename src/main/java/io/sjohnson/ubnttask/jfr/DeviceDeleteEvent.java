@@ -0,0 +1,34 @@
+package io.sjohnson.ubnttask.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A device deleted through the service, either orphaning its downlinks or along with its whole subtree
+ */
+@Name("io.sjohnson.ubnttask.DeviceDelete")
+@Label("Device Delete")
+@Category({"Network Topology", "Writes"})
+@Description("Device deleted")
+@Enabled(false)
+@StackTrace(false)
+public class DeviceDeleteEvent extends Event {
+    @Label("MAC Address")
+    public String macAddress;
+
+    @Label("Cascade")
+    public boolean cascade;
+
+    @Label("Orphaned")
+    @Description("Downlinks that became root devices")
+    public int orphaned;
+
+    @Label("Deleted")
+    @Description("Devices deleted, including the device itself")
+    public int deleted;
+}
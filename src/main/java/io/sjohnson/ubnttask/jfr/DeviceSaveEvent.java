@@ -0,0 +1,33 @@
+package io.sjohnson.ubnttask.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A single device saved through the service, including rejected ones
+ */
+@Name("io.sjohnson.ubnttask.DeviceSave")
+@Label("Device Save")
+@Category({"Network Topology", "Writes"})
+@Description("Device saved or updated")
+@Enabled(false)
+@StackTrace(false)
+public class DeviceSaveEvent extends Event {
+    @Label("MAC Address")
+    public String macAddress;
+
+    @Label("Uplink")
+    public String uplink;
+
+    @Label("Loop Walk Depth")
+    @Description("Uplinks walked to check the device for a network loop")
+    public int loopWalkDepth;
+
+    @Label("Rejected")
+    public boolean rejected;
+}
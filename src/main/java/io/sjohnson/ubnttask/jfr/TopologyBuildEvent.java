@@ -0,0 +1,35 @@
+package io.sjohnson.ubnttask.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A serialized topology snapshot rebuilt after the topology changed
+ */
+@Name("io.sjohnson.ubnttask.TopologyBuild")
+@Label("Topology Build")
+@Category({"Network Topology", "Reads"})
+@Description("Topology snapshot built and serialized")
+@Enabled(false)
+@StackTrace(false)
+public class TopologyBuildEvent extends Event {
+    @Label("Snapshot")
+    @Description("Kind of snapshot: full or simple")
+    public String snapshot;
+
+    @Label("Topology Version")
+    public long version;
+
+    @Label("Nodes")
+    public int nodes;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,16 @@
+package io.sjohnson.ubnttask.metrics;
+
+import org.hibernate.Interceptor;
+import org.hibernate.type.Type;
+
+/**
+ * Counts every entity Hibernate hydrates, including uplinks loaded along with the device that references them
+ */
+class EntityLoadCountingInterceptor implements Interceptor {
+    @Override
+    public boolean onLoad(Object entity, Object id, Object[] state, String[] propertyNames, Type[] types) {
+        QueryCounter.entityLoaded();
+
+        return false;
+    }
+}
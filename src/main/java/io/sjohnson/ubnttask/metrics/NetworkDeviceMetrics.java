@@ -0,0 +1,95 @@
+package io.sjohnson.ubnttask.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Metrics recorded by the service: how long its methods take, how far the network loop check had to walk, how
+ * saves were coalesced, and where devices were looked up.
+ * Published along with the per-endpoint metrics on /actuator/prometheus. Timings of transactional methods leave out
+ * the commit, including the flush of entities Hibernate holds back until then, which the endpoint latency covers
+ */
+@Component
+public class NetworkDeviceMetrics {
+    private final MeterRegistry registry;
+
+    private final DistributionSummary loopWalkDepth;
+
+    private final DistributionSummary groupCommitSize;
+
+    private final Counter upsertsSkipped;
+
+    private final Counter indexLookups;
+
+    private final Counter databaseLookups;
+
+    public NetworkDeviceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.loopWalkDepth = DistributionSummary.builder("network.device.loop.walk.depth")
+                .description("Uplinks walked to check a device for a network loop")
+                .register(registry);
+        this.groupCommitSize = DistributionSummary.builder("network.device.group.commit.size")
+                .description("Saves committed together in one transaction")
+                .register(registry);
+        this.upsertsSkipped = Counter.builder("network.device.upserts.skipped")
+                .description("Saves not written, since the device was already registered as given")
+                .register(registry);
+        this.indexLookups = lookups("index");
+        this.databaseLookups = lookups("database");
+    }
+
+    /**
+     * @return sample to be stopped once the service method returns
+     */
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * @param sample sample started when the service method was called
+     * @param method name of the service method
+     */
+    public void stop(Timer.Sample sample, String method) {
+        sample.stop(Timer.builder("network.device.service")
+                .description("Time spent in the service methods")
+                .tag("method", method)
+                .register(registry));
+    }
+
+    /**
+     * @param depth number of uplinks walked by the network loop check
+     */
+    public void loopWalked(int depth) {
+        loopWalkDepth.record(depth);
+    }
+
+    /**
+     * @param size number of saves committed together
+     */
+    public void groupCommitted(int size) {
+        groupCommitSize.record(size);
+    }
+
+    public void upsertSkipped() {
+        upsertsSkipped.increment();
+    }
+
+    public void deviceLookedUpInIndex() {
+        indexLookups.increment();
+    }
+
+    // while the topology index isn't verified yet
+    public void deviceLookedUpInDatabase() {
+        databaseLookups.increment();
+    }
+
+    private Counter lookups(String source) {
+        return Counter.builder("network.device.lookups")
+                .description("Single devices looked up")
+                .tag("source", source)
+                .register(registry);
+    }
+}
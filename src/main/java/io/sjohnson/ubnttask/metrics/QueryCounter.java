@@ -0,0 +1,72 @@
+package io.sjohnson.ubnttask.metrics;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Counts the SQL statements prepared and the entities loaded by the current thread, between start() and stop().
+ * Outside of that, e.g. while the topology index loads on startup, nothing is counted. Work done on another thread on
+ * behalf of the current one, such as a group commit, is counted there and added to the current thread's counts
+ */
+public final class QueryCounter {
+    private static final ThreadLocal<QueryCounter> CURRENT = new ThreadLocal<>();
+
+    private long statements;
+
+    private long entities;
+
+    private QueryCounter() {
+    }
+
+    public static void start() {
+        CURRENT.set(new QueryCounter());
+    }
+
+    /**
+     * @return counts since start(), or null if counting wasn't started on this thread
+     */
+    public static QueryCounter stop() {
+        QueryCounter counter = CURRENT.get();
+        CURRENT.remove();
+
+        return counter;
+    }
+
+    /**
+     * Adds counts made on another thread on behalf of the current one, if counting was started on this thread
+     *
+     * @param statements     SQL statements prepared
+     * @param entitiesLoaded entities loaded
+     */
+    public static void add(long statements, long entitiesLoaded) {
+        QueryCounter counter = CURRENT.get();
+
+        if (nonNull(counter)) {
+            counter.statements += statements;
+            counter.entities += entitiesLoaded;
+        }
+    }
+
+    static void statementPrepared() {
+        QueryCounter counter = CURRENT.get();
+
+        if (nonNull(counter)) {
+            counter.statements++;
+        }
+    }
+
+    static void entityLoaded() {
+        QueryCounter counter = CURRENT.get();
+
+        if (nonNull(counter)) {
+            counter.entities++;
+        }
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    public long getEntities() {
+        return entities;
+    }
+}
@@ -0,0 +1,60 @@
+package io.sjohnson.ubnttask.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Records the number of SQL statements and loaded entities per request, tagged the same way as the request latencies
+ * in http.server.requests. Streamed responses are written on another thread, so only the statements made before
+ * streaming started are counted. A PUT /device save committed in a group is charged every statement of the group's
+ * transaction, since that's what the request waited on
+ */
+class RequestQueryMetricsInterceptor implements AsyncHandlerInterceptor {
+    private final MeterRegistry registry;
+
+    RequestQueryMetricsInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        QueryCounter.start();
+
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // recorded once the async dispatch completes
+        QueryCounter.stop();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        QueryCounter counter = QueryCounter.stop();
+
+        if (!nonNull(counter)) {
+            return;
+        }
+
+        Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uriTag = nonNull(uri) ? uri.toString() : "UNKNOWN";
+
+        summary("network.device.request.statements", "SQL statements prepared per request", request.getMethod(), uriTag).record(counter.getStatements());
+        summary("network.device.request.entities.loaded", "Entities loaded by Hibernate per request", request.getMethod(), uriTag).record(counter.getEntities());
+    }
+
+    private DistributionSummary summary(String name, String description, String method, String uri) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .tag("method", method)
+                .tag("uri", uri)
+                .register(registry);
+    }
+}
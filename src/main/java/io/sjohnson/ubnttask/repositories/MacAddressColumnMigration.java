@@ -0,0 +1,103 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Converts the MAC address columns of databases written when MAC addresses were stored as text, formatted as
+ * 12:34:56:78:90:ab, to the BIGINT they're stored as now. Runs before Hibernate updates the schema, as ddl-auto=update
+ * never changes the type of an existing column, and fails startup if a stored MAC address can't be converted
+ */
+@Component
+public class MacAddressColumnMigration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MacAddressColumnMigration.class);
+
+    private static final String FIND_COLUMN_TYPE = "SELECT data_type FROM information_schema.columns "
+            + "WHERE table_schema = SCHEMA() AND table_name = 'NETWORK_DEVICE' AND column_name = 'MAC_ADDRESS'";
+
+    private static final String FIND_FOREIGN_KEYS = "SELECT constraint_name FROM information_schema.table_constraints "
+            + "WHERE table_schema = SCHEMA() AND table_name = 'NETWORK_DEVICE' AND constraint_type = 'FOREIGN KEY'";
+
+    private static final String FIND_DEVICES = "SELECT mac_address, uplink_mac_address FROM network_device";
+
+    // the packed value is written as decimal text first, which the column type change then casts to BIGINT
+    private static final String CONVERT_DEVICE = "UPDATE network_device SET mac_address = ?, uplink_mac_address = ? WHERE mac_address = ?";
+
+    private static final String TEXT_TYPE = "CHARACTER VARYING";
+
+    private static final String BIGINT_TYPE = "BIGINT";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MacAddressColumnMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Converts the MAC address columns if they're still text, and does nothing on an empty or already converted
+     * database
+     *
+     * @throws IllegalStateException a column has an unexpected type, or a stored MAC address is malformed
+     */
+    @PostConstruct
+    public void migrate() {
+        List<String> types = jdbcTemplate.queryForList(FIND_COLUMN_TYPE, String.class);
+
+        if (types.isEmpty() || types.get(0).equals(BIGINT_TYPE)) {
+            return;
+        }
+
+        if (!types.get(0).equals(TEXT_TYPE)) {
+            throw new IllegalStateException(String.format("Unsupported type %s of network_device.mac_address, expected %s", types.get(0), BIGINT_TYPE));
+        }
+
+        // every value is checked before anything is changed, so a failed migration leaves the database as it was
+        List<Object[]> conversions = new ArrayList<>();
+
+        jdbcTemplate.query(FIND_DEVICES, (resultSet) -> {
+            String macAddress = resultSet.getString("mac_address");
+            String uplink = resultSet.getString("uplink_mac_address");
+
+            conversions.add(new Object[]{toDecimal(macAddress), nonNull(uplink) ? toDecimal(uplink) : null, macAddress});
+        });
+
+        LOGGER.info("Converting {} stored MAC addresses from text to BIGINT", conversions.size());
+
+        // the uplink foreign key is dropped while the rows it links change, and created again on the converted columns
+        List<String> foreignKeys = jdbcTemplate.queryForList(FIND_FOREIGN_KEYS, String.class);
+        foreignKeys.forEach((name) -> jdbcTemplate.execute(String.format("ALTER TABLE network_device DROP CONSTRAINT %s", name)));
+
+        jdbcTemplate.batchUpdate(CONVERT_DEVICE, conversions);
+        jdbcTemplate.execute("ALTER TABLE network_device ALTER COLUMN mac_address SET DATA TYPE BIGINT");
+        jdbcTemplate.execute("ALTER TABLE network_device ALTER COLUMN uplink_mac_address SET DATA TYPE BIGINT");
+
+        foreignKeys.forEach((name) -> jdbcTemplate.execute(String.format(
+                "ALTER TABLE network_device ADD CONSTRAINT %s FOREIGN KEY (uplink_mac_address) REFERENCES network_device (mac_address)", name)));
+    }
+
+    private static String toDecimal(String macAddress) {
+        if (!MacAddress.isValid(macAddress)) {
+            throw new IllegalStateException(String.format("Can't convert stored MAC address %s to BIGINT, it isn't formatted as 12:34:56:78:90:ab", macAddress));
+        }
+
+        return Long.toString(MacAddress.parse(macAddress).toLong());
+    }
+
+    // Hibernate only updates the schema once the MAC address columns have been converted
+    @Component
+    static class EntityManagerFactoryDependency extends EntityManagerFactoryDependsOnPostProcessor {
+        EntityManagerFactoryDependency() {
+            super(MacAddressColumnMigration.class);
+        }
+    }
+}
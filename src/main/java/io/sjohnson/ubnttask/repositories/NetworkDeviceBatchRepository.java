@@ -0,0 +1,16 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+
+import java.util.List;
+
+public interface NetworkDeviceBatchRepository {
+    /**
+     * Inserts or updates network devices using JDBC batches, bypassing the persistence context. Keeps the materialized
+     * paths of the devices, and of the subtrees below devices moved to another uplink, which take one more statement
+     * per moved device
+     *
+     * @param devices devices to write, uplinks before their downlinks
+     */
+    void upsertAll(List<NetworkDeviceDTO> devices);
+}
@@ -0,0 +1,114 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.util.Objects.nonNull;
+
+public class NetworkDeviceBatchRepositoryImpl implements NetworkDeviceBatchRepository {
+    // the path is the uplink's path as written so far, followed by the device's own segment
+    private static final String UPSERT = "MERGE INTO network_device (mac_address, uplink_mac_address, type, friendly_name, path) KEY (mac_address) "
+            + "VALUES (?, ?, ?, ?, CONCAT(COALESCE((SELECT path FROM network_device WHERE mac_address = ?), ''), ?))";
+
+    private static final String FIND_UPLINKS = "SELECT mac_address, uplink_mac_address FROM network_device WHERE mac_address = ANY(?)";
+
+    private static final String FIND_PATHS = "SELECT mac_address, path FROM network_device WHERE mac_address IN (?, ?)";
+
+    private static final String MOVE_SUBTREE = "UPDATE network_device SET path = CONCAT(?, SUBSTRING(path, ?)) WHERE path >= ? AND path < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final int batchSize;
+
+    public NetworkDeviceBatchRepositoryImpl(JdbcTemplate jdbcTemplate, @Value("${network-device.batch-size:1000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void upsertAll(List<NetworkDeviceDTO> devices) {
+        if (devices.isEmpty()) {
+            return;
+        }
+
+        // uplinks as stored, kept up to date while writing, to tell which devices move to another uplink
+        Map<MacAddress, MacAddress> uplinks = findUplinks(devices);
+        List<NetworkDeviceDTO> pending = new ArrayList<>();
+
+        for (NetworkDeviceDTO device : devices) {
+            MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+            MacAddress uplink = nonNull(device.getUplink()) ? MacAddress.parse(device.getUplink()) : null;
+
+            // the subtree of a moving device takes its new path, which depends on every device written before it
+            if (uplinks.containsKey(macAddress) && !Objects.equals(uplinks.get(macAddress), uplink)) {
+                write(pending);
+                pending.clear();
+                moveSubtree(macAddress, uplink);
+            }
+
+            uplinks.put(macAddress, uplink);
+            pending.add(device);
+        }
+
+        write(pending);
+    }
+
+    private void write(List<NetworkDeviceDTO> devices) {
+        // rows are written in the order given, so an uplink always exists by the time its downlinks reference it
+        jdbcTemplate.batchUpdate(UPSERT, devices, batchSize, (statement, device) -> {
+            MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+            statement.setLong(1, macAddress.toLong());
+
+            if (nonNull(device.getUplink())) {
+                statement.setLong(2, MacAddress.parse(device.getUplink()).toLong());
+                statement.setLong(5, MacAddress.parse(device.getUplink()).toLong());
+            } else {
+                statement.setNull(2, Types.BIGINT);
+                statement.setNull(5, Types.BIGINT);
+            }
+
+            statement.setString(3, device.getType());
+            statement.setString(4, device.getFriendlyName());
+            statement.setString(6, NetworkDevicePaths.segment(macAddress));
+        });
+    }
+
+    private Map<MacAddress, MacAddress> findUplinks(List<NetworkDeviceDTO> devices) {
+        Long[] macAddresses = devices.stream().map((device) -> MacAddress.parse(device.getMacAddress()).toLong()).toArray(Long[]::new);
+        Map<MacAddress, MacAddress> uplinks = new HashMap<>(devices.size() * 4 / 3 + 1);
+
+        jdbcTemplate.query((connection) -> {
+            PreparedStatement statement = connection.prepareStatement(FIND_UPLINKS);
+            statement.setArray(1, connection.createArrayOf("BIGINT", macAddresses));
+
+            return statement;
+        }, (resultSet) -> {
+            long uplink = resultSet.getLong("uplink_mac_address");
+            uplinks.put(MacAddress.of(resultSet.getLong("mac_address")), resultSet.wasNull() ? null : MacAddress.of(uplink));
+        });
+
+        return uplinks;
+    }
+
+    private void moveSubtree(MacAddress macAddress, MacAddress uplink) {
+        Map<MacAddress, String> paths = new HashMap<>();
+        jdbcTemplate.query(FIND_PATHS, (resultSet) -> {
+            paths.put(MacAddress.of(resultSet.getLong("mac_address")), resultSet.getString("path"));
+        }, macAddress.toLong(), (nonNull(uplink) ? uplink : macAddress).toLong());
+
+        String path = paths.get(macAddress);
+        String newPath = (nonNull(uplink) ? paths.get(uplink) : "") + NetworkDevicePaths.segment(macAddress);
+
+        jdbcTemplate.update(MOVE_SUBTREE, newPath, path.length() + 1, path, NetworkDevicePaths.upperBound(path));
+    }
+}
@@ -0,0 +1,35 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+/**
+ * Materialized paths of devices: the MAC address of every device from the root device down to the device itself, each
+ * as 12 hex digits followed by a slash. The devices below a device are then exactly those whose path starts with its
+ * path, which a range scan of the path index finds without walking the tree
+ */
+final class NetworkDevicePaths {
+    static final int SEGMENT_LENGTH = 13;
+
+    // same as segment(), for a mac_address column. The BIGINT is cast to its 8 bytes, of which the MAC address takes 6
+    static final String SQL_SEGMENT = "CONCAT(SUBSTRING(RAWTOHEX(CAST(%s AS BINARY(8))), 5), '/')";
+
+    private NetworkDevicePaths() {
+    }
+
+    /**
+     * @param macAddress MAC address of a device
+     * @return the device's own part of the paths it's on
+     */
+    static String segment(MacAddress macAddress) {
+        return String.format("%012x/", macAddress.toLong());
+    }
+
+    /**
+     * @param path path of a device
+     * @return the smallest path that is greater than the path of every device below the device, as paths below it
+     * continue with a hex digit where the path ends with a slash
+     */
+    static String upperBound(String path) {
+        return path.substring(0, path.length() - 1) + '0';
+    }
+}
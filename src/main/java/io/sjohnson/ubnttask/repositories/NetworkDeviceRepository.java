@@ -1,20 +1,95 @@
 package io.sjohnson.ubnttask.repositories;
 
+import io.sjohnson.ubnttask.constructs.MacAddress;
 import io.sjohnson.ubnttask.entities.NetworkDevice;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
-public interface NetworkDeviceRepository extends CrudRepository<NetworkDevice, String> {
-    NetworkDevice findByMacAddress(String macAddress);
+public interface NetworkDeviceRepository extends CrudRepository<NetworkDevice, MacAddress>, NetworkDeviceBatchRepository, NetworkDeviceTreeRepository {
+    NetworkDevice findByMacAddress(MacAddress macAddress);
 
     @Query(value = "SELECT nd FROM NetworkDevice nd WHERE nd.uplink IS NULL")
     List<NetworkDevice> findRootDevices();
 
     @NonNull
     List<NetworkDevice> findAll();
+
+    /**
+     * @return all registered network devices as flat rows, loaded in a single query without initializing any entities
+     */
+    @Query(value = "SELECT new io.sjohnson.ubnttask.repositories.NetworkDeviceRow(nd.macAddress, u.macAddress, nd.type, nd.friendlyName) FROM NetworkDevice nd LEFT JOIN nd.uplink u")
+    List<NetworkDeviceRow> findAllFlat();
+
+    /**
+     * First page of a keyset-paginated read of a single device type, served by the (type, mac_address) index
+     *
+     * @param type  device type
+     * @param limit maximum number of devices to return
+     * @return flat devices ordered by MAC address
+     */
+    @Query(value = "SELECT new io.sjohnson.ubnttask.repositories.NetworkDeviceRow(nd.macAddress, u.macAddress, nd.type, nd.friendlyName) FROM NetworkDevice nd LEFT JOIN nd.uplink u WHERE nd.type = :type ORDER BY nd.macAddress")
+    List<NetworkDeviceRow> findPageByType(String type, Limit limit);
+
+    /**
+     * Next page of a keyset-paginated read of a single device type, served by the (type, mac_address) index
+     *
+     * @param type  device type
+     * @param after MAC address of the last device on the previous page
+     * @param limit maximum number of devices to return
+     * @return flat devices ordered by MAC address
+     */
+    @Query(value = "SELECT new io.sjohnson.ubnttask.repositories.NetworkDeviceRow(nd.macAddress, u.macAddress, nd.type, nd.friendlyName) FROM NetworkDevice nd LEFT JOIN nd.uplink u WHERE nd.type = :type AND nd.macAddress > :after ORDER BY nd.macAddress")
+    List<NetworkDeviceRow> findPageByTypeAfter(String type, MacAddress after, Limit limit);
+
+    /**
+     * Streams all devices of a single device type from a database cursor. Must be consumed within a transaction
+     *
+     * @param type device type
+     * @return flat devices ordered by MAC address
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query(value = "SELECT new io.sjohnson.ubnttask.repositories.NetworkDeviceRow(nd.macAddress, u.macAddress, nd.type, nd.friendlyName) FROM NetworkDevice nd LEFT JOIN nd.uplink u WHERE nd.type = :type ORDER BY nd.macAddress")
+    Stream<NetworkDeviceRow> streamByType(String type);
+
+    /**
+     * Turns all downlinks of a device into root devices in a single statement, without loading them
+     *
+     * @param macAddress MAC address of the device
+     * @return number of orphaned downlinks
+     */
+    @Modifying
+    @Query(value = "UPDATE NetworkDevice nd SET nd.uplink = NULL WHERE nd.uplink.macAddress = :macAddress")
+    int orphanDownlinks(MacAddress macAddress);
+
+    /**
+     * Deletes a device without loading it. Its downlinks must have been orphaned or deleted beforehand
+     *
+     * @param macAddress MAC address of the device
+     * @return number of deleted devices, 0 if it didn't exist
+     */
+    @Modifying
+    @Query(value = "DELETE FROM NetworkDevice nd WHERE nd.macAddress = :macAddress")
+    int deleteByMacAddress(MacAddress macAddress);
+
+    /**
+     * Deletes all downlinks of a device in a single statement. None of them may have downlinks of their own
+     *
+     * @param macAddress MAC address of the device
+     * @return number of deleted devices
+     */
+    @Modifying
+    @Query(value = "DELETE FROM NetworkDevice nd WHERE nd.uplink.macAddress = :macAddress")
+    int deleteDownlinks(MacAddress macAddress);
 }
@@ -0,0 +1,36 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+/**
+ * Flat, unmanaged projection of a network device, for queries that don't need entities
+ */
+public class NetworkDeviceRow {
+    private final MacAddress macAddress;
+    private final MacAddress uplink;
+    private final String type;
+    private final String friendlyName;
+
+    public NetworkDeviceRow(MacAddress macAddress, MacAddress uplink, String type, String friendlyName) {
+        this.macAddress = macAddress;
+        this.uplink = uplink;
+        this.type = type;
+        this.friendlyName = friendlyName;
+    }
+
+    public MacAddress getMacAddress() {
+        return macAddress;
+    }
+
+    public MacAddress getUplink() {
+        return uplink;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getFriendlyName() {
+        return friendlyName;
+    }
+}
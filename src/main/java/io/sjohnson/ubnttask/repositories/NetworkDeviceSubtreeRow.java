@@ -0,0 +1,22 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+/**
+ * Flat, unmanaged projection of a network device within a subtree, along with its distance from the subtree's root
+ */
+public class NetworkDeviceSubtreeRow extends NetworkDeviceRow {
+    private final int depth;
+
+    public NetworkDeviceSubtreeRow(MacAddress macAddress, MacAddress uplink, String type, String friendlyName, int depth) {
+        super(macAddress, uplink, type, friendlyName);
+        this.depth = depth;
+    }
+
+    /**
+     * @return 0 for the subtree's root device, 1 for its downlinks, and so on
+     */
+    public int getDepth() {
+        return depth;
+    }
+}
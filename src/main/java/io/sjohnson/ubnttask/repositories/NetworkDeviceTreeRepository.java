@@ -0,0 +1,44 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+import java.util.List;
+
+/**
+ * Reads and changes of whole subtrees, served by the materialized path kept for every device
+ */
+public interface NetworkDeviceTreeRepository {
+    /**
+     * Reads a device and every device below it in a single query, a range scan of the path index
+     *
+     * @param macAddress MAC address of the subtree's root device
+     * @return flat devices ordered by depth, then by MAC address, so every uplink comes before its downlinks. Empty if
+     * the device doesn't exist
+     */
+    List<NetworkDeviceSubtreeRow> findSubtree(MacAddress macAddress);
+
+    /**
+     * Fills in the paths of devices written before paths were kept. Does nothing if every device has one
+     *
+     * @return number of devices whose path was written
+     */
+    int fillMissingPaths();
+
+    /**
+     * Re-parents every device in the subtree below a device directly onto it, so that the whole subtree can then be
+     * deleted without violating the uplink foreign key, which is checked row by row
+     *
+     * @param macAddress MAC address of the subtree's root device
+     * @return number of devices below the root device
+     */
+    int flattenSubtree(MacAddress macAddress);
+
+    /**
+     * Cuts the path of a device off the paths of every device below it, ahead of the device being deleted and its
+     * downlinks becoming root devices
+     *
+     * @param macAddress MAC address of the device
+     * @return number of devices below the device
+     */
+    int detachSubtree(MacAddress macAddress);
+}
@@ -0,0 +1,97 @@
+package io.sjohnson.ubnttask.repositories;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static io.sjohnson.ubnttask.repositories.NetworkDevicePaths.SEGMENT_LENGTH;
+import static java.util.Objects.nonNull;
+
+public class NetworkDeviceTreeRepositoryImpl implements NetworkDeviceTreeRepository {
+    private static final String FIND_SUBTREE = """
+            SELECT nd.mac_address, nd.uplink_mac_address, nd.type, nd.friendly_name, (CHAR_LENGTH(nd.path) - CHAR_LENGTH(root.path)) / %d AS depth
+            FROM network_device root JOIN network_device nd ON nd.path >= root.path AND nd.path < CONCAT(LEFT(root.path, CHAR_LENGTH(root.path) - 1), '0')
+            WHERE root.mac_address = ?
+            ORDER BY depth, nd.mac_address""".formatted(SEGMENT_LENGTH);
+
+    private static final String FIND_PATH = "SELECT path FROM network_device WHERE mac_address = ?";
+
+    private static final String HAS_MISSING_PATHS = "SELECT EXISTS(SELECT 1 FROM network_device WHERE path IS NULL)";
+
+    // written as a MERGE, so that H2 evaluates the recursive query once rather than once per row
+    private static final String FILL_PATHS = """
+            MERGE INTO network_device target USING (
+                WITH RECURSIVE tree(mac_address, path) AS (
+                    SELECT mac_address, %s FROM network_device WHERE uplink_mac_address IS NULL
+                    UNION ALL
+                    SELECT nd.mac_address, CONCAT(t.path, %s) FROM network_device nd JOIN tree t ON nd.uplink_mac_address = t.mac_address
+                )
+                SELECT mac_address, path FROM tree
+            ) source ON target.mac_address = source.mac_address
+            WHEN MATCHED THEN UPDATE SET path = source.path""".formatted(
+            NetworkDevicePaths.SQL_SEGMENT.formatted("mac_address"),
+            NetworkDevicePaths.SQL_SEGMENT.formatted("nd.mac_address"));
+
+    private static final String FLATTEN_SUBTREE = "UPDATE network_device SET uplink_mac_address = ? WHERE path > ? AND path < ?";
+
+    private static final String DETACH_SUBTREE = "UPDATE network_device SET path = SUBSTRING(path, ?) WHERE path > ? AND path < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public NetworkDeviceTreeRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<NetworkDeviceSubtreeRow> findSubtree(MacAddress macAddress) {
+        return jdbcTemplate.query(FIND_SUBTREE, (resultSet, rowNumber) -> {
+            long uplink = resultSet.getLong("uplink_mac_address");
+            boolean isRoot = resultSet.wasNull();
+
+            return new NetworkDeviceSubtreeRow(
+                    MacAddress.of(resultSet.getLong("mac_address")),
+                    isRoot ? null : MacAddress.of(uplink),
+                    resultSet.getString("type"),
+                    resultSet.getString("friendly_name"),
+                    resultSet.getInt("depth"));
+        }, macAddress.toLong());
+    }
+
+    @Override
+    public int fillMissingPaths() {
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_MISSING_PATHS, Boolean.class))) {
+            return 0;
+        }
+
+        return jdbcTemplate.update(FILL_PATHS);
+    }
+
+    @Override
+    public int flattenSubtree(MacAddress macAddress) {
+        String path = findPath(macAddress);
+
+        if (!nonNull(path)) {
+            return 0;
+        }
+
+        return jdbcTemplate.update(FLATTEN_SUBTREE, macAddress.toLong(), path, NetworkDevicePaths.upperBound(path));
+    }
+
+    @Override
+    public int detachSubtree(MacAddress macAddress) {
+        String path = findPath(macAddress);
+
+        if (!nonNull(path)) {
+            return 0;
+        }
+
+        return jdbcTemplate.update(DETACH_SUBTREE, path.length() + 1, path, NetworkDevicePaths.upperBound(path));
+    }
+
+    private String findPath(MacAddress macAddress) {
+        List<String> paths = jdbcTemplate.queryForList(FIND_PATH, String.class, macAddress.toLong());
+
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+}
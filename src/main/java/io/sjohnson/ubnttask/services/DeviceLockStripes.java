@@ -0,0 +1,118 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks on devices, striped by MAC address so that a fixed number of locks covers any number of devices.
+ * A device is locked exclusively by whoever changes its uplink, creates or deletes it, and shared by whoever relies on
+ * its uplink staying as it is. Lock sets are always locked in ascending stripe order, so writers never deadlock on
+ * each other
+ */
+final class DeviceLockStripes {
+    // spreads consecutive MAC addresses, which are common within a vendor's range, over the stripes
+    private static final long GOLDEN_RATIO = 0x9E37_79B9_7F4A_7C15L;
+
+    private final ReentrantReadWriteLock[] locks;
+
+    private final int shift;
+
+    /**
+     * @param count number of stripes, a power of two
+     */
+    DeviceLockStripes(int count) {
+        if (Integer.bitCount(count) != 1) {
+            throw new IllegalArgumentException(String.format("Invalid number of lock stripes: %d", count));
+        }
+
+        this.locks = new ReentrantReadWriteLock[count];
+        this.shift = Long.SIZE - Integer.numberOfTrailingZeros(count);
+
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * @return an empty lock set
+     */
+    LockSet newLockSet() {
+        return new LockSet();
+    }
+
+    /**
+     * @param macAddress MAC address of a device
+     * @return index of the stripe the device is locked by
+     */
+    int stripeOf(MacAddress macAddress) {
+        return shift == Long.SIZE ? 0 : (int) ((macAddress.toLong() * GOLDEN_RATIO) >>> shift);
+    }
+
+    /**
+     * Stripes to be locked together, each either exclusively or shared
+     */
+    final class LockSet {
+        private final BitSet exclusive = new BitSet(locks.length);
+
+        private final BitSet shared = new BitSet(locks.length);
+
+        private LockSet() {
+        }
+
+        void exclusive(MacAddress macAddress) {
+            exclusive.set(stripeOf(macAddress));
+        }
+
+        void shared(MacAddress macAddress) {
+            shared.set(stripeOf(macAddress));
+        }
+
+        /**
+         * @param other another lock set
+         * @return whether holding this lock set also holds every lock of the other one
+         */
+        boolean covers(LockSet other) {
+            BitSet missingExclusive = (BitSet) other.exclusive.clone();
+            missingExclusive.andNot(exclusive);
+
+            BitSet missingShared = (BitSet) other.shared.clone();
+            missingShared.andNot(exclusive);
+            missingShared.andNot(shared);
+
+            return missingExclusive.isEmpty() && missingShared.isEmpty();
+        }
+
+        void lock() {
+            BitSet stripes = stripes();
+
+            for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+                if (exclusive.get(i)) {
+                    locks[i].writeLock().lock();
+                } else {
+                    locks[i].readLock().lock();
+                }
+            }
+        }
+
+        void unlock() {
+            BitSet stripes = stripes();
+
+            for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+                if (exclusive.get(i)) {
+                    locks[i].writeLock().unlock();
+                } else {
+                    locks[i].readLock().unlock();
+                }
+            }
+        }
+
+        private BitSet stripes() {
+            BitSet stripes = (BitSet) exclusive.clone();
+            stripes.or(shared);
+
+            return stripes;
+        }
+    }
+}
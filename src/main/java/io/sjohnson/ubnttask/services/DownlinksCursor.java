@@ -0,0 +1,45 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.exceptions.InvalidPageCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Position in the downlinks of a device, for topology trees truncated by maxDepth or maxChildren. Encoded as
+ * "device/lastDownlink", or "device/" if none of its downlinks were returned
+ */
+final class DownlinksCursor {
+    final MacAddress device;
+
+    // last downlink returned, or null to start from the first one
+    final MacAddress after;
+
+    private DownlinksCursor(MacAddress device, MacAddress after) {
+        this.device = device;
+        this.after = after;
+    }
+
+    static String encode(MacAddress device, MacAddress after) {
+        String position = String.format("%s/%s", device, nonNull(after) ? after : "");
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static DownlinksCursor decode(String cursor) throws InvalidPageCursorException {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("/", -1);
+
+            if (position.length == 2) {
+                return new DownlinksCursor(MacAddress.parse(position[0]), position[1].isEmpty() ? null : MacAddress.parse(position[1]));
+            }
+        } catch (IllegalArgumentException ignored) {
+            // reported below, along with cursors that decode but don't hold a position
+        }
+
+        throw new InvalidPageCursorException(String.format("Invalid cursor: %s", cursor));
+    }
+}
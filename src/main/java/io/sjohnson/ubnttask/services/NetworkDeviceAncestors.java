@@ -0,0 +1,148 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Binary lifting table of the topology: the depth of every device, and its ancestors 1, 2, 4, 8... levels up, so
+ * that the ancestor any number of levels up and the lowest common ancestor of two devices are found in O(log depth).
+ * <p>
+ * Not thread-safe, it's kept by the topology index under its lock. Moving a device recomputes the devices below it,
+ * whose ancestors all change, so a change costs O(moved devices * log depth)
+ */
+final class NetworkDeviceAncestors {
+    // macAddress => depth and jumps
+    private final Map<MacAddress, Ancestry> ancestries = new HashMap<>();
+
+    /**
+     * Recomputes a device and every device below it, after the device was added or moved. Its uplink must already be
+     * up to date
+     *
+     * @param macAddress MAC address of the device
+     * @param uplinkOf   uplink of a device, or null for a root device
+     * @param downlinks  downlinks of a device
+     */
+    void update(MacAddress macAddress, Function<MacAddress, MacAddress> uplinkOf, Function<MacAddress, ? extends Collection<MacAddress>> downlinks) {
+        Deque<MacAddress> pending = new ArrayDeque<>();
+        pending.add(macAddress);
+
+        // breadth-first, so that every device's uplink is recomputed before the device itself
+        while (!pending.isEmpty()) {
+            MacAddress current = pending.poll();
+            ancestries.put(current, ancestryBelow(uplinkOf.apply(current)));
+            pending.addAll(downlinks.apply(current));
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the removed device
+     */
+    void remove(MacAddress macAddress) {
+        ancestries.remove(macAddress);
+    }
+
+    void clear() {
+        ancestries.clear();
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return number of levels between the device and its root device, or -1 if it isn't registered
+     */
+    int depthOf(MacAddress macAddress) {
+        Ancestry ancestry = ancestries.get(macAddress);
+
+        return nonNull(ancestry) ? ancestry.depth : -1;
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @param levels     number of levels up, at most the device's depth
+     * @return the device's ancestor that many levels up, or the device itself for 0 levels
+     */
+    MacAddress ancestorOf(MacAddress macAddress, int levels) {
+        MacAddress current = macAddress;
+
+        for (int k = 0; levels > 0; k++, levels >>>= 1) {
+            if ((levels & 1) != 0) {
+                current = ancestries.get(current).jumps[k];
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * @param macAddress      MAC address of a registered device
+     * @param otherMacAddress MAC address of another registered device
+     * @return the deepest device both devices are at or below, or null if they're in different trees
+     */
+    MacAddress lowestCommonAncestorOf(MacAddress macAddress, MacAddress otherMacAddress) {
+        int depth = depthOf(macAddress);
+        int otherDepth = depthOf(otherMacAddress);
+
+        // brings both devices up to the same level first
+        MacAddress current = ancestorOf(macAddress, Math.max(0, depth - otherDepth));
+        MacAddress otherCurrent = ancestorOf(otherMacAddress, Math.max(0, otherDepth - depth));
+
+        if (current.equals(otherCurrent)) {
+            return current;
+        }
+
+        // then jumps up as far as they stay apart, which ends with both right below their lowest common ancestor
+        for (int k = ancestries.get(current).jumps.length - 1; k >= 0; k--) {
+            MacAddress[] jumps = ancestries.get(current).jumps;
+            MacAddress[] otherJumps = ancestries.get(otherCurrent).jumps;
+
+            if (k < jumps.length && !jumps[k].equals(otherJumps[k])) {
+                current = jumps[k];
+                otherCurrent = otherJumps[k];
+            }
+        }
+
+        MacAddress[] jumps = ancestries.get(current).jumps;
+        MacAddress[] otherJumps = ancestries.get(otherCurrent).jumps;
+
+        // root devices of different trees
+        if (jumps.length == 0 || !jumps[0].equals(otherJumps[0])) {
+            return null;
+        }
+
+        return jumps[0];
+    }
+
+    private Ancestry ancestryBelow(MacAddress uplinkMacAddress) {
+        if (!nonNull(uplinkMacAddress)) {
+            return new Ancestry(0, new MacAddress[0]);
+        }
+
+        Ancestry uplink = ancestries.get(uplinkMacAddress);
+        int depth = uplink.depth + 1;
+
+        // the ancestor 2^k levels up is the ancestor 2^(k-1) levels up of the ancestor 2^(k-1) levels up
+        MacAddress[] jumps = new MacAddress[Integer.SIZE - Integer.numberOfLeadingZeros(depth)];
+        jumps[0] = uplinkMacAddress;
+
+        for (int k = 1; k < jumps.length; k++) {
+            jumps[k] = ancestries.get(jumps[k - 1]).jumps[k - 1];
+        }
+
+        return new Ancestry(depth, jumps);
+    }
+
+    private static final class Ancestry {
+        private final int depth;
+
+        // jumps[k] is the ancestor 2^k levels up
+        private final MacAddress[] jumps;
+
+        private Ancestry(int depth, MacAddress[] jumps) {
+            this.depth = depth;
+            this.jumps = jumps;
+        }
+    }
+}
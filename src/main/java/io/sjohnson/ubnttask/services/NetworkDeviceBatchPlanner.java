@@ -0,0 +1,195 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceBatchErrorDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.entities.NetworkDevice;
+
+import java.util.*;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Orders a batch of devices so that uplinks come before their downlinks, and rejects the devices that would end up
+ * in a network loop, under an unknown uplink, or deeper than NetworkDevice.MAX_DEPTH.
+ * <p>
+ * Every device is checked against the topology it would have once the batch is written: devices in the batch use
+ * their new uplink, every other device keeps the one it has in the topology index. Each device is visited once, so
+ * the whole batch is checked in a single pass no matter how it's ordered.
+ */
+class NetworkDeviceBatchPlanner {
+    private enum State {
+        VISITING,
+        REACHES_ROOT,
+        REJECTED
+    }
+
+    private final NetworkTopologyIndex index;
+
+    // macAddress => device, for the devices that passed validation
+    private final Map<MacAddress, NetworkDeviceDTO> batch;
+
+    // macAddress => uplink macAddress, for the devices in the batch that have an uplink
+    private final Map<MacAddress, MacAddress> batchUplinks = new HashMap<>();
+
+    // macAddress => position in the submitted batch
+    private final Map<MacAddress, Integer> positions;
+
+    private final Map<MacAddress, State> states = new HashMap<>();
+
+    // macAddress => level the device is on once the batch is written, root devices being on level 1, for the devices
+    // that reach a root device
+    private final Map<MacAddress, Integer> levels = new HashMap<>();
+
+    private final List<NetworkDeviceDTO> ordered = new ArrayList<>();
+
+    private final List<NetworkDeviceBatchErrorDTO> errors;
+
+    NetworkDeviceBatchPlanner(NetworkTopologyIndex index, Map<MacAddress, NetworkDeviceDTO> batch, Map<MacAddress, Integer> positions, List<NetworkDeviceBatchErrorDTO> errors) {
+        this.index = index;
+        this.batch = batch;
+        this.positions = positions;
+        this.errors = errors;
+
+        batch.forEach((macAddress, device) -> {
+            if (nonNull(device.getUplink())) {
+                batchUplinks.put(macAddress, MacAddress.parse(device.getUplink()));
+            }
+        });
+    }
+
+    /**
+     * @return devices that can be saved, uplinks before their downlinks. Rejected devices are added to the errors
+     */
+    List<NetworkDeviceDTO> plan() {
+        batch.keySet().forEach(this::visit);
+
+        return ordered;
+    }
+
+    private void visit(MacAddress macAddress) {
+        List<MacAddress> path = new ArrayList<>();
+        MacAddress current = macAddress;
+
+        while (nonNull(current)) {
+            State state = states.get(current);
+
+            if (state == State.REACHES_ROOT) {
+                break;
+            }
+
+            if (state == State.REJECTED) {
+                reject(path, path.size());
+                return;
+            }
+
+            if (state == State.VISITING) {
+                rejectLoop(path, path.indexOf(current));
+                return;
+            }
+
+            if (!batch.containsKey(current) && !index.contains(current)) {
+                // only a device from the batch can point to an unknown uplink, the index itself is consistent
+                MacAddress uplinkNotFound = path.remove(path.size() - 1);
+                states.put(uplinkNotFound, State.REJECTED);
+                addError(uplinkNotFound, String.format("Invalid uplink: %s - device not found", current));
+                reject(path, path.size());
+                return;
+            }
+
+            states.put(current, State.VISITING);
+            path.add(current);
+            current = uplinkOf(current);
+        }
+
+        // walk back down, so every uplink is ordered before its downlinks
+        int level = nonNull(current) ? levels.get(current) : 0;
+
+        for (int i = path.size() - 1; i >= 0; i--) {
+            MacAddress device = path.get(i);
+            level++;
+
+            if (batch.containsKey(device) && rejectIfTooDeep(device, level)) {
+                reject(path, i);
+                return;
+            }
+
+            states.put(device, State.REACHES_ROOT);
+            levels.put(device, level);
+
+            if (batch.containsKey(device)) {
+                ordered.add(batch.get(device));
+            }
+        }
+    }
+
+    /**
+     * Rejects a device of the batch if it would take any device deeper than NetworkDevice.MAX_DEPTH. Devices below it
+     * in the index move along with it, and those the batch moves below it are checked on their own
+     *
+     * @param macAddress MAC address of the device
+     * @param level      level the device would be on
+     * @return whether the device was rejected
+     */
+    private boolean rejectIfTooDeep(MacAddress macAddress, int level) {
+        int depth = level + Math.max(index.getDepthBelow(macAddress), 0);
+
+        if (depth <= NetworkDevice.MAX_DEPTH) {
+            return false;
+        }
+
+        states.put(macAddress, State.REJECTED);
+        addError(macAddress, String.format("Invalid uplink: %s - devices would sit %d levels deep, more than the maximum of %d", uplinkOf(macAddress), depth, NetworkDevice.MAX_DEPTH));
+
+        return true;
+    }
+
+    /**
+     * Rejects the devices forming a loop, and every device on the path below them
+     *
+     * @param path      devices visited, each one a downlink of the next
+     * @param loopStart position in the path where the loop begins
+     */
+    private void rejectLoop(List<MacAddress> path, int loopStart) {
+        List<MacAddress> loop = path.subList(loopStart, path.size());
+
+        for (int i = 0; i < loop.size(); i++) {
+            MacAddress device = loop.get(i);
+            states.put(device, State.REJECTED);
+
+            if (batch.containsKey(device)) {
+                List<MacAddress> devicesInLoop = new ArrayList<>(loop.subList(i, loop.size()));
+                devicesInLoop.addAll(loop.subList(0, i + 1));
+
+                addError(device, String.format("Invalid uplink device: %s - causes a network loop: %s", uplinkOf(device), NetworkDeviceService.formatPath(devicesInLoop)));
+            }
+        }
+
+        reject(path, loopStart);
+    }
+
+    /**
+     * Rejects the devices whose uplink chain leads to a rejected device
+     *
+     * @param path devices visited, each one a downlink of the next
+     * @param end  position in the path of the first device that has already been rejected
+     */
+    private void reject(List<MacAddress> path, int end) {
+        for (int i = 0; i < end; i++) {
+            MacAddress device = path.get(i);
+            states.put(device, State.REJECTED);
+
+            if (batch.containsKey(device)) {
+                addError(device, String.format("Invalid uplink: %s - uplink chain contains a rejected device", uplinkOf(device)));
+            }
+        }
+    }
+
+    private MacAddress uplinkOf(MacAddress macAddress) {
+        return batch.containsKey(macAddress) ? batchUplinks.get(macAddress) : index.getUplink(macAddress);
+    }
+
+    private void addError(MacAddress macAddress, String message) {
+        errors.add(new NetworkDeviceBatchErrorDTO(positions.get(macAddress), macAddress.toString(), message));
+    }
+}
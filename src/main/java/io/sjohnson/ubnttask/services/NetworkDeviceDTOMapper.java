@@ -1,9 +1,19 @@
 package io.sjohnson.ubnttask.services;
 
+import io.sjohnson.ubnttask.constructs.MacAddress;
 import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceTopologyDTO;
 import io.sjohnson.ubnttask.entities.NetworkDevice;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceRow;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceSubtreeRow;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.nonNull;
+
 @Component
 public class NetworkDeviceDTOMapper {
     /**
@@ -12,7 +22,86 @@ public class NetworkDeviceDTOMapper {
      * @return DTO of the entity
      */
     public NetworkDeviceDTO toDto(NetworkDevice networkDevice) {
-        return new NetworkDeviceDTO(networkDevice.getMacAddress(), networkDevice.getUplink(), networkDevice.getType(), networkDevice.getFriendlyName());
+        return toDto(networkDevice.getMacAddress(), networkDevice.getUplink(), networkDevice.getType(), networkDevice.getFriendlyName());
+    }
+
+    /**
+     * Creates a DTO from a flat Network Device row
+     * @param row flat Network Device row
+     * @return DTO of the row
+     */
+    public NetworkDeviceDTO toDto(NetworkDeviceRow row) {
+        return toDto(row.getMacAddress(), row.getUplink(), row.getType(), row.getFriendlyName());
+    }
+
+    /**
+     * Assembles a nested topology tree from the flat rows of a subtree, in a single pass
+     *
+     * @param subtree flat rows of a subtree, every uplink before its downlinks, as returned by findSubtree()
+     * @return nested topology tree starting with the subtree's root device, or null if there are no rows
+     */
+    public NetworkDeviceTopologyDTO toTopology(List<NetworkDeviceSubtreeRow> subtree) {
+        return toTopology(subtree, null, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as toTopology(), truncated the way the topology index truncates trees
+     *
+     * @param subtree     flat rows of a subtree, ordered by depth, then by MAC address, as returned by findSubtree()
+     * @param after       downlink of the root device to continue after, or null to start with its first downlink
+     * @param maxDepth    number of downlink levels to include below the root device
+     * @param maxChildren number of downlinks to include per device
+     * @return nested topology tree starting with the subtree's root device, or null if there are no rows. Devices
+     * whose downlinks were left out carry a cursor to fetch them with
+     */
+    public NetworkDeviceTopologyDTO toTopology(List<NetworkDeviceSubtreeRow> subtree, MacAddress after, int maxDepth, int maxChildren) {
+        // only devices included in the tree, rows below a left out device are skipped along with it
+        Map<MacAddress, NetworkDeviceTopologyDTO> nodes = new HashMap<>();
+        NetworkDeviceTopologyDTO root = null;
+
+        for (NetworkDeviceSubtreeRow row : subtree) {
+            if (!nonNull(root)) {
+                root = new NetworkDeviceTopologyDTO(toDto(row));
+                nodes.put(row.getMacAddress(), root);
+                continue;
+            }
+
+            NetworkDeviceTopologyDTO uplink = nodes.get(row.getUplink());
+
+            // only the device the tree starts with can be continued from a cursor
+            if (!nonNull(uplink) || (uplink == root && nonNull(after) && row.getMacAddress().compareTo(after) <= 0)) {
+                continue;
+            }
+
+            // downlinks of a device come in order, so the first one left out tells where its cursor continues
+            if (row.getDepth() > maxDepth) {
+                if (!nonNull(uplink.getDownlinksCursor())) {
+                    uplink.setDownlinksCursor(DownlinksCursor.encode(row.getUplink(), uplink == root ? after : null));
+                }
+
+                continue;
+            }
+
+            if (uplink.getDownlinks().size() == maxChildren) {
+                if (!nonNull(uplink.getDownlinksCursor())) {
+                    List<NetworkDeviceTopologyDTO> downlinks = uplink.getDownlinks();
+                    MacAddress lastDownlink = downlinks.isEmpty() ? null : MacAddress.parse(downlinks.get(downlinks.size() - 1).getMacAddress());
+                    uplink.setDownlinksCursor(DownlinksCursor.encode(row.getUplink(), lastDownlink));
+                }
+
+                continue;
+            }
+
+            NetworkDeviceTopologyDTO node = new NetworkDeviceTopologyDTO(toDto(row));
+            uplink.getDownlinks().add(node);
+            nodes.put(row.getMacAddress(), node);
+        }
+
+        return root;
+    }
+
+    private static NetworkDeviceDTO toDto(MacAddress macAddress, MacAddress uplink, String type, String friendlyName) {
+        return new NetworkDeviceDTO(macAddress.toString(), nonNull(uplink) ? uplink.toString() : null, type, friendlyName);
     }
 
     /**
@@ -22,12 +111,16 @@ public class NetworkDeviceDTOMapper {
      * @return pending Network Device entity
      */
     public NetworkDevice toNetworkDevice(NetworkDeviceDTO deviceDTO) {
-        NetworkDevice uplink = new NetworkDevice();
-        uplink.setMacAddress(deviceDTO.getUplink());
+        NetworkDevice uplink = null;
+
+        if (nonNull(deviceDTO.getUplink())) {
+            uplink = new NetworkDevice();
+            uplink.setMacAddress(MacAddress.parse(deviceDTO.getUplink()));
+        }
 
         NetworkDevice networkDevice = new NetworkDevice();
         networkDevice.setUplink(uplink);
-        networkDevice.setMacAddress(deviceDTO.getMacAddress());
+        networkDevice.setMacAddress(MacAddress.parse(deviceDTO.getMacAddress()));
         networkDevice.setFriendlyName(deviceDTO.getFriendlyName());
         networkDevice.setType(deviceDTO.getType());
 
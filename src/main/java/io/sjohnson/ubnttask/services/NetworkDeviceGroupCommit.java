@@ -0,0 +1,207 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.exceptions.DeviceCausesNetworkLoopException;
+import io.sjohnson.ubnttask.exceptions.InvalidNetworkDeviceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Coalesces concurrent saves into group commits. Callers queue their device and wait, while a committer thread takes
+ * whatever has queued up while the previous group was being committed, and commits it as one group. A lone save is
+ * committed on its own straight away, so the number of commits only stops growing with the load once saves arrive
+ * faster than the database commits.
+ * <p>
+ * Saves are sharded over several committers by the lock stripe of the device, so saves of unrelated devices are
+ * committed concurrently, the way they would be without group commits, while the saves of any one device are still
+ * committed in the order they were queued
+ */
+final class NetworkDeviceGroupCommit {
+    // how long the committer waits for a save before checking whether it should stop
+    private static final long IDLE_WAIT_MILLIS = 100;
+
+    // how long a caller waits for its save to be settled before giving up on learning the outcome
+    private static final long AWAIT_TIMEOUT_SECONDS = 30;
+
+    // one per committer
+    private final List<BlockingQueue<PendingSave>> queues = new ArrayList<>();
+
+    private final List<Thread> committerThreads = new ArrayList<>();
+
+    private final int maxGroupSize;
+
+    private final ToIntFunction<NetworkDeviceDTO> lockStripe;
+
+    private final Consumer<List<PendingSave>> commit;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param committers   number of committer threads
+     * @param maxGroupSize maximum number of saves committed together
+     * @param lockStripe   lock stripe of a device, which picks the committer its saves are queued for
+     * @param commit       commits a group, and settles every save in it once the commit is durable
+     */
+    NetworkDeviceGroupCommit(int committers, int maxGroupSize, ToIntFunction<NetworkDeviceDTO> lockStripe, Consumer<List<PendingSave>> commit) {
+        if (committers < 1) {
+            throw new IllegalArgumentException(String.format("Invalid number of group committers: %d", committers));
+        }
+
+        this.maxGroupSize = maxGroupSize;
+        this.lockStripe = lockStripe;
+        this.commit = commit;
+
+        for (int i = 0; i < committers; i++) {
+            BlockingQueue<PendingSave> queue = new LinkedBlockingQueue<>();
+            queues.add(queue);
+            committerThreads.add(new Thread(() -> drain(queue), String.format("network-device-group-commit-%d", i)));
+        }
+    }
+
+    void start() {
+        committerThreads.forEach((committerThread) -> {
+            committerThread.setDaemon(true);
+            committerThread.start();
+        });
+    }
+
+    /**
+     * Stops the committers once the groups being committed are done, failing the saves still queued
+     */
+    void stop() throws InterruptedException {
+        // not interrupted, since an interrupt in the middle of a write closes H2's file channel
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        for (Thread committerThread : committerThreads) {
+            committerThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+
+        List<PendingSave> abandoned = new ArrayList<>();
+        queues.forEach((queue) -> queue.drainTo(abandoned));
+        abandoned.forEach((pending) -> pending.fail(new IllegalStateException("Shutting down - device was not saved")));
+    }
+
+    /**
+     * @param device device to be saved
+     * @return the queued save, to wait on until the group it's committed in is durable
+     */
+    PendingSave queue(NetworkDeviceDTO device) {
+        if (!running) {
+            throw new IllegalStateException("Shutting down - device was not saved");
+        }
+
+        PendingSave pending = new PendingSave(device);
+        BlockingQueue<PendingSave> queue = queues.get(Math.floorMod(lockStripe.applyAsInt(device), queues.size()));
+        queue.add(pending);
+
+        // queued after the committer stopped, so it would never be settled
+        if (!running && queue.remove(pending)) {
+            pending.fail(new IllegalStateException("Shutting down - device was not saved"));
+        }
+
+        return pending;
+    }
+
+    private void drain(BlockingQueue<PendingSave> queue) {
+        List<PendingSave> group = new ArrayList<>(maxGroupSize);
+
+        while (running) {
+            try {
+                PendingSave first = queue.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (!nonNull(first)) {
+                    continue;
+                }
+
+                group.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            queue.drainTo(group, maxGroupSize - 1);
+
+            try {
+                commit.accept(group);
+            } catch (Throwable e) {
+                // the committer keeps going, as a dead committer would leave every later save waiting for nothing
+                group.forEach((pending) -> pending.fail(e));
+            }
+
+            group.clear();
+        }
+    }
+
+    /**
+     * A queued save, settled by the committer once its group is committed or rolled back
+     */
+    static final class PendingSave {
+        private final NetworkDeviceDTO device;
+
+        private final CompletableFuture<NetworkDeviceDTO> result = new CompletableFuture<>();
+
+        // set by the committer while validating, read by the caller once the save is settled
+        volatile int loopWalkDepth;
+
+        // made by the committer on behalf of the save, set before it's settled
+        volatile long statements;
+
+        volatile long entitiesLoaded;
+
+        private PendingSave(NetworkDeviceDTO device) {
+            this.device = device;
+        }
+
+        NetworkDeviceDTO getDevice() {
+            return device;
+        }
+
+        void complete(NetworkDeviceDTO savedDevice) {
+            result.complete(savedDevice);
+        }
+
+        void fail(Throwable e) {
+            result.completeExceptionally(e);
+        }
+
+        /**
+         * @return the device as it was saved
+         * @throws InvalidNetworkDeviceException    uplink provided doesn't exist
+         * @throws DeviceCausesNetworkLoopException saving the device would result in a network loop
+         * @throws IllegalStateException            the save wasn't settled in time, and may or may not be committed later
+         */
+        NetworkDeviceDTO await() throws InvalidNetworkDeviceException, DeviceCausesNetworkLoopException {
+            try {
+                return result.get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the device to be saved - it may still be saved", e);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("Timed out waiting for the device to be saved - it may still be saved", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof InvalidNetworkDeviceException invalid) {
+                    throw invalid;
+                } else if (cause instanceof DeviceCausesNetworkLoopException loop) {
+                    throw loop;
+                } else if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+
+                throw new IllegalStateException("Device save failed", cause);
+            }
+        }
+    }
+}
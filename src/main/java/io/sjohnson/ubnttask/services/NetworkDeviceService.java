@@ -1,21 +1,52 @@
 package io.sjohnson.ubnttask.services;
 
+import io.sjohnson.ubnttask.audit.AuditLog;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceBatchErrorDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceBatchResultDTO;
 import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceImpactDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDevicePageDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDevicePathDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceTopologyDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+import io.sjohnson.ubnttask.constructs.NetworkTopologySnapshot;
 import io.sjohnson.ubnttask.entities.NetworkDevice;
 import io.sjohnson.ubnttask.exceptions.DeviceCausesNetworkLoopException;
 import io.sjohnson.ubnttask.exceptions.InvalidNetworkDeviceException;
+import io.sjohnson.ubnttask.exceptions.InvalidPageCursorException;
+import io.sjohnson.ubnttask.exceptions.InvalidTopologySnapshotException;
+import io.sjohnson.ubnttask.jfr.DeviceDeleteEvent;
+import io.sjohnson.ubnttask.jfr.DeviceSaveEvent;
+import io.sjohnson.ubnttask.metrics.NetworkDeviceMetrics;
+import io.sjohnson.ubnttask.metrics.QueryCounter;
 import io.sjohnson.ubnttask.repositories.NetworkDeviceRepository;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceRow;
+import io.sjohnson.ubnttask.services.NetworkDeviceGroupCommit.PendingSave;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
-
-import java.io.IOException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.logging.FileHandler;
-import java.util.logging.Logger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
 
-import static io.sjohnson.ubnttask.constructs.NetworkDeviceType.*;
+import static io.sjohnson.ubnttask.constructs.NetworkDeviceType.GATEWAY;
 import static java.util.Objects.nonNull;
-import static java.util.stream.Collectors.toList;
 
 @Service
 public class NetworkDeviceService {
@@ -25,82 +56,297 @@ public class NetworkDeviceService {
 
     private final NetworkDeviceDTOMapper mapper;
 
-    private final Logger logger;
+    private final NetworkTopologyIndex index;
+
+    private final Validator validator;
+
+    private final NetworkTopologySnapshotCache snapshots;
+
+    private final AuditLog auditLog;
+
+    private final NetworkDeviceMetrics metrics;
+
+    private final TransactionTemplate transactionTemplate;
 
-    public NetworkDeviceService(NetworkDeviceDTOMapper mapper) throws IOException {
+    private final NetworkDeviceGroupCommit groupCommit;
+
+    public NetworkDeviceService(NetworkDeviceDTOMapper mapper, NetworkTopologyIndex index, NetworkTopologySnapshotCache snapshots, Validator validator, AuditLog auditLog, NetworkDeviceMetrics metrics,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${network-device.group-commit.committers:4}") int groupCommitters,
+                                @Value("${network-device.group-commit.max-size:256}") int maxGroupSize) {
         this.mapper = mapper;
+        this.index = index;
+        this.snapshots = snapshots;
+        this.validator = validator;
+        this.auditLog = auditLog;
+        this.metrics = metrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.groupCommit = new NetworkDeviceGroupCommit(groupCommitters, maxGroupSize,
+                (device) -> index.lockStripeOf(MacAddress.parse(device.getMacAddress())), this::commitGroup);
+    }
+
+    @PostConstruct
+    public void startGroupCommit() {
+        groupCommit.start();
+    }
 
-        FileHandler handler = new FileHandler("networkDeviceService.log", true);
-        this.logger = Logger.getLogger("io.sjohnson.ubnttask.services");
-        logger.addHandler(handler);
+    @PreDestroy
+    public void stopGroupCommit() throws InterruptedException {
+        groupCommit.stop();
     }
 
     /**
      * @return returns a flat, ordered list of all registered network devices
      */
     public List<NetworkDeviceDTO> getAll() {
-        List<NetworkDeviceDTO> list = repository.findAll().stream().map(mapper::toDto).collect(toList());
+        List<NetworkDeviceDTO> list = new ArrayList<>();
 
-        List<String> definedOrder = Arrays.asList(GATEWAY.toString(), SWITCH.toString(), ACCESS_POINT.toString());
-        list.sort(Comparator.comparingInt(d -> definedOrder.indexOf(d.getType())));
+        // types are read one after another, so the database orders by type, then by MAC address
+        for (NetworkDeviceType type : NetworkDeviceType.values()) {
+            repository.findPageByType(type.toString(), Limit.unlimited()).forEach((row) -> list.add(mapper.toDto(row)));
+        }
 
         return list;
     }
 
+    /**
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @param limit  maximum number of devices on the page
+     * @return a page of the flat list of all registered network devices, ordered by type, then by MAC address
+     * @throws InvalidPageCursorException cursor provided is malformed
+     */
+    public NetworkDevicePageDTO getPage(String cursor, int limit) throws InvalidPageCursorException {
+        NetworkDeviceType type = GATEWAY;
+        MacAddress after = null;
+
+        if (nonNull(cursor)) {
+            Map.Entry<NetworkDeviceType, MacAddress> position = decodeCursor(cursor);
+            type = position.getKey();
+            after = position.getValue();
+        }
+
+        List<NetworkDeviceDTO> devices = new ArrayList<>(limit);
+        NetworkDeviceType[] types = NetworkDeviceType.values();
+
+        // once a type runs out, the page continues from the first device of the next type
+        for (int i = type.ordinal(); i < types.length && devices.size() < limit; i++) {
+            Limit remaining = Limit.of(limit - devices.size());
+
+            List<NetworkDeviceRow> rows = i == type.ordinal() && nonNull(after)
+                    ? repository.findPageByTypeAfter(types[i].toString(), after, remaining)
+                    : repository.findPageByType(types[i].toString(), remaining);
+
+            rows.forEach((row) -> devices.add(mapper.toDto(row)));
+        }
+
+        String nextCursor = devices.size() == limit ? encodeCursor(devices.get(devices.size() - 1)) : null;
+
+        return new NetworkDevicePageDTO(devices, nextCursor);
+    }
+
+    /**
+     * Passes every registered network device to the consumer, ordered by type, then by MAC address. Devices are read
+     * from a database cursor and never held in memory all at once
+     *
+     * @param consumer consumer of the devices
+     */
+    @Transactional(readOnly = true)
+    public void forEachDevice(Consumer<NetworkDeviceDTO> consumer) {
+        for (NetworkDeviceType type : NetworkDeviceType.values()) {
+            try (Stream<NetworkDeviceRow> rows = repository.streamByType(type.toString())) {
+                rows.forEach((row) -> consumer.accept(mapper.toDto(row)));
+            }
+        }
+    }
+
     /**
      * @param macAddress MAC address of the device
-     * @return returns a flat network device
+     * @return returns a flat network device, from the topology index unless it's still being verified
      */
     public NetworkDeviceDTO findByMacAddress(String macAddress) throws InvalidNetworkDeviceException {
-        NetworkDevice networkDevice = repository.findByMacAddress(macAddress);
+        MacAddress key = MacAddress.parse(macAddress);
+        NetworkDeviceDTO device;
+
+        // the index holds every device, but a snapshot it was warmed from may be stale until it's verified
+        if (index.isVerified()) {
+            device = index.get(key);
+            metrics.deviceLookedUpInIndex();
+        } else {
+            NetworkDevice networkDevice = repository.findByMacAddress(key);
+            device = nonNull(networkDevice) ? mapper.toDto(networkDevice) : null;
+            metrics.deviceLookedUpInDatabase();
+        }
 
-        if (!nonNull(networkDevice)) {
+        if (!nonNull(device)) {
             throw new InvalidNetworkDeviceException(String.format("Device not found: %s", macAddress));
         }
 
-        return mapper.toDto(repository.findByMacAddress(macAddress));
+        return device;
     }
 
     /**
      * @return returns the device topology tree. We assume that root devices are the ones with no uplink
      */
-    public List<NetworkDevice> getTopology() {
-        return repository.findRootDevices();
+    public List<NetworkDeviceTopologyDTO> getTopology() {
+        Timer.Sample sample = metrics.start();
+
+        try {
+            return index.getTopology();
+        } finally {
+            metrics.stop(sample, "getTopology");
+        }
     }
 
     /**
-     * @return same as getTopology(), except nodes are identified as MAC addresses, and it only shows MAC addresses
+     * @param maxDepth    number of downlink levels to include below each root device
+     * @param maxChildren number of downlinks to include per device
+     * @return same as getTopology(), except devices whose downlinks were left out carry a cursor to fetch them with
      */
-    public Map<String, Map<?, ?>> getSimpleTopology() {
-        List<NetworkDevice> topology = getTopology();
+    public List<NetworkDeviceTopologyDTO> getTopology(int maxDepth, int maxChildren) {
+        Timer.Sample sample = metrics.start();
 
-        return simplifyTopology(topology);
+        try {
+            return index.getTopology(maxDepth, maxChildren);
+        } finally {
+            metrics.stop(sample, "getTopology");
+        }
     }
 
     /**
-     * @param networkDevices the nested Network Device topology
-     * @return macAddress => downlinks<macAddress>[]
+     * @return same as getTopology(), serialized. Rebuilt only when the topology version changes
      */
-    private Map<String, Map<?, ?>> simplifyTopology(List<NetworkDevice> networkDevices) {
-        Map<String, Map<?,?>> devices = new HashMap<>();
+    public NetworkTopologySnapshot getTopologySnapshot() {
+        Timer.Sample sample = metrics.start();
 
-        networkDevices.forEach((networkDevice) -> devices.put(networkDevice.getMacAddress(), simplifyTopology((List<NetworkDevice>) networkDevice.getDownlinks())));
+        try {
+            return snapshots.getTopology();
+        } finally {
+            metrics.stop(sample, "getTopologySnapshot");
+        }
+    }
 
-        return devices;
+    /**
+     * @return same as getTopology(), except nodes are identified as MAC addresses, and it only shows MAC addresses.
+     * Serialized, and rebuilt only when the topology version changes
+     */
+    public NetworkTopologySnapshot getSimpleTopologySnapshot() {
+        return snapshots.getSimpleTopology();
+    }
+
+    /**
+     * @return the whole topology in the binary topology snapshot format, not tied to the database, so that it can be
+     * imported into any other
+     */
+    public byte[] exportTopologySnapshot() {
+        return NetworkTopologySnapshotFormat.encode("", index.getDevicesTopDown());
+    }
+
+    /**
+     * Saves or updates every device of a topology snapshot, same as saveAll(). Registered devices that aren't in the
+     * snapshot are kept
+     *
+     * @param snapshot topology in the binary topology snapshot format
+     * @return saved devices, uplinks before their downlinks, along with an error for every rejected device
+     * @throws InvalidTopologySnapshotException snapshot is truncated, corrupted or in another format
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public NetworkDeviceBatchResultDTO importTopologySnapshot(byte[] snapshot) throws InvalidTopologySnapshotException {
+        return saveAll(NetworkTopologySnapshotFormat.decode(ByteBuffer.wrap(snapshot)));
     }
 
     /**
      * @param macAddress MAC address of the network device
      * @return nested topology tree starting with the device with MAC address provided
      */
-    public NetworkDevice getTopologyFromDevice(String macAddress) throws InvalidNetworkDeviceException {
-        NetworkDevice networkDevice = repository.findByMacAddress(macAddress);
+    public NetworkDeviceTopologyDTO getTopologyFromDevice(String macAddress) throws InvalidNetworkDeviceException {
+        NetworkDeviceTopologyDTO topology = index.isVerified()
+                ? index.getTopologyFrom(MacAddress.parse(macAddress))
+                : mapper.toTopology(repository.findSubtree(MacAddress.parse(macAddress)));
 
-        if (!nonNull(networkDevice)) {
+        if (!nonNull(topology)) {
             throw new InvalidNetworkDeviceException(String.format("Device not found: %s", macAddress));
         }
 
-        return networkDevice;
+        return topology;
+    }
+
+    /**
+     * @param macAddress  MAC address of the network device
+     * @param cursor      downlinks cursor of the device from a previous response, or null to start with its first downlink
+     * @param maxDepth    number of downlink levels to include below the device
+     * @param maxChildren number of downlinks to include per device
+     * @return same as getTopologyFromDevice(), except devices whose downlinks were left out carry a cursor to fetch
+     * them with
+     * @throws InvalidPageCursorException cursor provided is malformed, or belongs to another device
+     */
+    public NetworkDeviceTopologyDTO getTopologyFromDevice(String macAddress, String cursor, int maxDepth, int maxChildren) throws InvalidNetworkDeviceException, InvalidPageCursorException {
+        MacAddress device = MacAddress.parse(macAddress);
+        MacAddress after = null;
+
+        if (nonNull(cursor)) {
+            DownlinksCursor position = DownlinksCursor.decode(cursor);
+
+            if (!position.device.equals(device)) {
+                throw new InvalidPageCursorException(String.format("Invalid cursor: %s - belongs to another device", cursor));
+            }
+
+            after = position.after;
+        }
+
+        // an index warmed from a snapshot may be out of date until it's verified, so the subtree is read from the
+        // database in a single query meanwhile
+        NetworkDeviceTopologyDTO topology = index.isVerified()
+                ? index.getTopologyFrom(device, after, maxDepth, maxChildren)
+                : mapper.toTopology(repository.findSubtree(device), after, maxDepth, maxChildren);
+
+        if (!nonNull(topology)) {
+            throw new InvalidNetworkDeviceException(String.format("Device not found: %s", macAddress));
+        }
+
+        return topology;
+    }
+
+    /**
+     * @param macAddress      MAC address of the network device the path starts with
+     * @param otherMacAddress MAC address of the network device the path ends with
+     * @return devices along the uplinks between both devices, and their lowest common ancestor
+     * @throws InvalidNetworkDeviceException either device doesn't exist, or they're in different trees
+     */
+    public NetworkDevicePathDTO getPath(String macAddress, String otherMacAddress) throws InvalidNetworkDeviceException {
+        Timer.Sample sample = metrics.start();
+
+        try {
+            for (String device : List.of(macAddress, otherMacAddress)) {
+                if (!index.contains(MacAddress.parse(device))) {
+                    throw new InvalidNetworkDeviceException(String.format("Device not found: %s", device));
+                }
+            }
+
+            NetworkDevicePathDTO path = index.getPath(MacAddress.parse(macAddress), MacAddress.parse(otherMacAddress));
+
+            if (!nonNull(path)) {
+                throw new InvalidNetworkDeviceException(String.format("No path between %s and %s - they're in different trees", macAddress, otherMacAddress));
+            }
+
+            return path;
+        } finally {
+            metrics.stop(sample, "getPath");
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the network device
+     * @return number of devices below the device, by type, and the number of levels below it
+     * @throws InvalidNetworkDeviceException device doesn't exist
+     */
+    public NetworkDeviceImpactDTO getImpact(String macAddress) throws InvalidNetworkDeviceException {
+        NetworkDeviceImpactDTO impact = index.getImpact(MacAddress.parse(macAddress));
+
+        if (!nonNull(impact)) {
+            throw new InvalidNetworkDeviceException(String.format("Device not found: %s", macAddress));
+        }
+
+        return impact;
     }
 
     /**
@@ -111,29 +357,149 @@ public class NetworkDeviceService {
      * @throws InvalidNetworkDeviceException    uplink provided doesn't exist
      * @throws DeviceCausesNetworkLoopException registering the device would result in a network loop
      */
+    @Transactional(rollbackFor = Exception.class)
     public NetworkDeviceDTO save(NetworkDeviceDTO newDeviceDto) throws InvalidNetworkDeviceException, DeviceCausesNetworkLoopException {
-        NetworkDevice networkDevice = mapper.toNetworkDevice(newDeviceDto);
+        Timer.Sample sample = metrics.start();
+        DeviceSaveEvent event = new DeviceSaveEvent();
+        event.begin();
+        boolean saved = false;
+
+        try {
+            NetworkDevice networkDevice = mapper.toNetworkDevice(newDeviceDto);
+
+            MacAddress uplinkMacAddress = networkDevice.getUplink();
+            index.lockForSave(networkDevice.getMacAddress(), uplinkMacAddress);
+
+            try {
+                validateUplink(networkDevice.getMacAddress(), uplinkMacAddress, Collections.emptyMap(), (depth) -> event.loopWalkDepth = depth);
+            } catch (InvalidNetworkDeviceException | DeviceCausesNetworkLoopException e) {
+                auditLog.deviceRejected(networkDevice.getMacAddress(), e.getMessage());
+                throw e;
+            }
+
+            // written like a batch of one, which keeps the materialized paths, and doesn't load the uplink chain the way
+            // merging the entity would
+            NetworkDeviceDTO savedDevice = mapper.toDto(networkDevice);
+            repository.upsertAll(List.of(savedDevice));
+            auditLog.deviceSaved(networkDevice);
 
-        String uplinkMacAddress = networkDevice.getUplink();
+            index.putOnCommit(savedDevice);
+            saved = true;
 
-        if (nonNull(uplinkMacAddress)) {
-            NetworkDevice uplink = repository.findByMacAddress(uplinkMacAddress);
+            return savedDevice;
+        } finally {
+            metrics.stop(sample, "save");
 
-            if (!nonNull(uplink)) {
-                String errorMessage = String.format("Invalid uplink: %s - device not found", uplinkMacAddress);
-                logger.warning(errorMessage);
-                throw new InvalidNetworkDeviceException(errorMessage);
+            if (event.shouldCommit()) {
+                event.macAddress = newDeviceDto.getMacAddress();
+                event.uplink = newDeviceDto.getUplink();
+                event.rejected = !saved;
+                event.commit();
             }
+        }
+    }
 
-            networkDevice.setUplink(uplink);
-            validateNoNetworkLoop(networkDevice.getMacAddress(), networkDevice.getUplink());
-        } else {
-            networkDevice.setUplink(null);
+    /**
+     * Saves or updates a Network Device the same way save() does, except that a device already registered exactly as
+     * given isn't written at all, and that concurrent saves are validated in the order they arrived and committed
+     * together, each group in one transaction written using JDBC batches. Returns only once the device's group has
+     * committed
+     *
+     * @param newDeviceDto Network Device DTO
+     * @return the device as it was saved
+     * @throws InvalidNetworkDeviceException    uplink provided doesn't exist
+     * @throws DeviceCausesNetworkLoopException registering the device would result in a network loop
+     */
+    public NetworkDeviceDTO upsert(NetworkDeviceDTO newDeviceDto) throws InvalidNetworkDeviceException, DeviceCausesNetworkLoopException {
+        Timer.Sample sample = metrics.start();
+        DeviceSaveEvent event = new DeviceSaveEvent();
+        event.begin();
+        boolean saved = false;
+
+        try {
+            NetworkDeviceDTO device = mapper.toDto(mapper.toNetworkDevice(newDeviceDto));
+
+            // changes are applied to the index before their writers return, so a device found unchanged here is
+            // unchanged by every save acknowledged so far
+            if (index.isUnchanged(device)) {
+                metrics.upsertSkipped();
+                saved = true;
+
+                return device;
+            }
+
+            PendingSave pending = groupCommit.queue(device);
+
+            try {
+                NetworkDeviceDTO savedDevice = pending.await();
+                saved = true;
+
+                return savedDevice;
+            } finally {
+                event.loopWalkDepth = pending.loopWalkDepth;
+                QueryCounter.add(pending.statements, pending.entitiesLoaded);
+            }
+        } finally {
+            metrics.stop(sample, "upsert");
+
+            if (event.shouldCommit()) {
+                event.macAddress = newDeviceDto.getMacAddress();
+                event.uplink = newDeviceDto.getUplink();
+                event.rejected = !saved;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Saves or updates a batch of Network Devices in a single transaction. Devices may be given in any order, and may
+     * use each other as uplinks. Devices that are invalid, would cause a network loop, or sit under a rejected device
+     * are skipped and reported, the rest are written using JDBC batches
+     *
+     * @param newDeviceDtos Network Device DTOs
+     * @return saved devices, uplinks before their downlinks, along with an error for every rejected device
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public NetworkDeviceBatchResultDTO saveAll(List<NetworkDeviceDTO> newDeviceDtos) {
+        List<NetworkDeviceBatchErrorDTO> errors = new ArrayList<>();
+        Map<MacAddress, NetworkDeviceDTO> batch = new LinkedHashMap<>();
+        Map<MacAddress, Integer> positions = new HashMap<>();
+
+        for (int i = 0; i < newDeviceDtos.size(); i++) {
+            NetworkDeviceDTO newDeviceDto = newDeviceDtos.get(i);
+
+            if (!nonNull(newDeviceDto)) {
+                errors.add(new NetworkDeviceBatchErrorDTO(i, null, "Device must be provided"));
+                continue;
+            }
+
+            Set<ConstraintViolation<NetworkDeviceDTO>> violations = validator.validate(newDeviceDto);
+
+            if (!violations.isEmpty()) {
+                int position = i;
+                violations.forEach((violation) -> errors.add(new NetworkDeviceBatchErrorDTO(position, newDeviceDto.getMacAddress(), violation.getMessage())));
+                continue;
+            }
+
+            MacAddress macAddress = MacAddress.parse(newDeviceDto.getMacAddress());
+
+            if (nonNull(batch.putIfAbsent(macAddress, newDeviceDto))) {
+                errors.add(new NetworkDeviceBatchErrorDTO(i, newDeviceDto.getMacAddress(), String.format("Duplicate device: %s - already in this batch", newDeviceDto.getMacAddress())));
+                continue;
+            }
+
+            positions.put(macAddress, i);
         }
 
-        repository.save(networkDevice);
-        logger.info(String.format("Saved Network Device. MAC address: %s, Uplink: %s, Type: %s, Name: %s", networkDevice.getMacAddress(), networkDevice.getUplink(), networkDevice.getType(), networkDevice.getFriendlyName()));
-        return mapper.toDto(networkDevice);
+        index.lockForSaveAll(batch.values());
+        List<NetworkDeviceDTO> orderedDevices = new NetworkDeviceBatchPlanner(index, batch, positions, errors).plan();
+        errors.sort(Comparator.comparingInt(NetworkDeviceBatchErrorDTO::getIndex));
+
+        repository.upsertAll(orderedDevices);
+        index.putAllOnCommit(orderedDevices);
+
+        auditLog.batchSaved(orderedDevices.size(), errors.size());
+        return new NetworkDeviceBatchResultDTO(orderedDevices, errors);
     }
 
     /**
@@ -142,50 +508,250 @@ public class NetworkDeviceService {
      * @param macAddress MAC address of the device to be deleted
      * @throws InvalidNetworkDeviceException device we're trying to delete doesn't exist
      */
+    @Transactional(rollbackFor = Exception.class)
     public void delete(String macAddress) throws InvalidNetworkDeviceException {
-        NetworkDevice device = repository.findByMacAddress(macAddress);
+        delete(macAddress, false);
+    }
 
-        if (!nonNull(device)) {
-            throw new InvalidNetworkDeviceException(String.format("Invalid device: %s - device not found", macAddress));
+    /**
+     * Deletes a Network Device, either orphaning all its downlinks or deleting every device below it as well. Either
+     * way it takes a constant number of statements, and no device is loaded
+     *
+     * @param macAddress MAC address of the device to be deleted
+     * @param cascade    whether to delete the whole subtree below the device instead of orphaning its downlinks
+     * @throws InvalidNetworkDeviceException device we're trying to delete doesn't exist
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void delete(String macAddress, boolean cascade) throws InvalidNetworkDeviceException {
+        Timer.Sample sample = metrics.start();
+        DeviceDeleteEvent event = new DeviceDeleteEvent();
+        event.begin();
+
+        try {
+            MacAddress deviceMacAddress = MacAddress.parse(macAddress);
+            index.lockForDelete(deviceMacAddress, cascade);
+
+            if (!index.contains(deviceMacAddress)) {
+                throw new InvalidNetworkDeviceException(String.format("Invalid device: %s - device not found", macAddress));
+            }
+
+            if (cascade) {
+                // once every device below sits directly under the root device, they can all go in one statement
+                repository.flattenSubtree(deviceMacAddress);
+                int deleted = repository.deleteDownlinks(deviceMacAddress) + repository.deleteByMacAddress(deviceMacAddress);
+
+                event.deleted = deleted;
+                auditLog.subtreeDeleted(deviceMacAddress, deleted);
+                index.removeSubtreeOnCommit(deviceMacAddress);
+                return;
+            }
+
+            // orphan all downlinks, but not recursively
+            repository.detachSubtree(deviceMacAddress);
+            int orphaned = repository.orphanDownlinks(deviceMacAddress);
+            event.deleted = repository.deleteByMacAddress(deviceMacAddress);
+            event.orphaned = orphaned;
+
+            auditLog.deviceDeleted(deviceMacAddress, orphaned);
+            index.removeOnCommit(deviceMacAddress);
+        } finally {
+            metrics.stop(sample, "delete");
+
+            if (event.shouldCommit()) {
+                event.macAddress = macAddress;
+                event.cascade = cascade;
+                event.commit();
+            }
+        }
+    }
+
+    private static String encodeCursor(NetworkDeviceDTO lastDevice) {
+        String position = String.format("%s/%s", lastDevice.getType(), lastDevice.getMacAddress());
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map.Entry<NetworkDeviceType, MacAddress> decodeCursor(String cursor) throws InvalidPageCursorException {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("/", 2);
+
+            if (position.length == 2) {
+                return Map.entry(NetworkDeviceType.valueOf(position[0]), MacAddress.parse(position[1]));
+            }
+        } catch (IllegalArgumentException ignored) {
+            // reported below, along with cursors that decode but hold no MAC address
+        }
+
+        throw new InvalidPageCursorException(String.format("Invalid cursor: %s", cursor));
+    }
+
+    /**
+     * Commits a group of queued saves in one transaction, validating them in the order they were queued, as if they had
+     * been saved one after another. Saves are settled and audited only once the transaction has committed. If writing
+     * the group fails, the saves are retried one by one, so that a single failing device doesn't fail the others
+     *
+     * @param group queued saves
+     */
+    private void commitGroup(List<PendingSave> group) {
+        Timer.Sample sample = metrics.start();
+        NetworkDeviceDTO[] savedDevices = new NetworkDeviceDTO[group.size()];
+        Exception[] rejections = new Exception[group.size()];
+        QueryCounter.start();
+
+        try {
+            transactionTemplate.executeWithoutResult((status) -> writeGroup(group, savedDevices, rejections));
+        } catch (RuntimeException e) {
+            // a retried save is charged both the failed group and its own retry
+            charge(group, QueryCounter.stop());
+
+            if (group.size() == 1) {
+                group.get(0).fail(e);
+            } else {
+                group.forEach((pending) -> commitGroup(List.of(pending)));
+            }
+
+            return;
+        } finally {
+            metrics.stop(sample, "commitGroup");
         }
 
-        // orphan all downlinks, but not recursively
-        device.getDownlinks().forEach(this::orphanDevice);
+        charge(group, QueryCounter.stop());
+        metrics.groupCommitted(group.size());
 
-        // delete the device
-        logger.info(String.format("Deleted Network Device: %s", device.getMacAddress()));
-        repository.delete(device);
+        for (int i = 0; i < group.size(); i++) {
+            if (nonNull(rejections[i])) {
+                group.get(i).fail(rejections[i]);
+            } else {
+                group.get(i).complete(savedDevices[i]);
+            }
+        }
+    }
+
+    private static void charge(List<PendingSave> group, QueryCounter counter) {
+        for (PendingSave pending : group) {
+            pending.statements += counter.getStatements();
+            pending.entitiesLoaded += counter.getEntities();
+        }
+    }
+
+    private void writeGroup(List<PendingSave> group, NetworkDeviceDTO[] savedDevices, Exception[] rejections) {
+        index.lockForSaveAll(group.stream().map(PendingSave::getDevice).toList());
+
+        // devices written earlier in the group, which later ones are validated against instead of the index
+        Map<MacAddress, NetworkDeviceDTO> written = new HashMap<>();
+        Map<MacAddress, MacAddress> writtenUplinks = new HashMap<>();
+        List<NetworkDeviceDTO> rows = new ArrayList<>();
+        // recorded in the order the saves were validated in
+        List<Runnable> auditRecords = new ArrayList<>();
+
+        for (int i = 0; i < group.size(); i++) {
+            PendingSave pending = group.get(i);
+            NetworkDeviceDTO device = pending.getDevice();
+            MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+            MacAddress uplinkMacAddress = nonNull(device.getUplink()) ? MacAddress.parse(device.getUplink()) : null;
+
+            try {
+                validateUplink(macAddress, uplinkMacAddress, writtenUplinks, (depth) -> pending.loopWalkDepth = depth);
+            } catch (InvalidNetworkDeviceException | DeviceCausesNetworkLoopException e) {
+                rejections[i] = e;
+                auditRecords.add(() -> auditLog.deviceRejected(macAddress, e.getMessage()));
+                continue;
+            }
+
+            savedDevices[i] = device;
+            NetworkDeviceDTO current = written.get(macAddress);
+
+            // the same device may have been saved unchanged by a save queued earlier, or changed by another one in the group
+            if (nonNull(current) ? NetworkTopologyIndex.isSame(current, device) : index.isUnchanged(device)) {
+                continue;
+            }
+
+            written.put(macAddress, device);
+            writtenUplinks.put(macAddress, uplinkMacAddress);
+            rows.add(device);
+            auditRecords.add(() -> auditLog.deviceSaved(mapper.toNetworkDevice(device)));
+        }
+
+        // rows go in the order they were validated in, so every uplink is written before the devices using it
+        repository.upsertAll(rows);
+        index.putAllOnCommit(rows);
+
+        // a group that rolls back is retried one save at a time, and audited by the retries instead
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                auditRecords.forEach(Runnable::run);
+            }
+        });
     }
 
     /**
-     * Orphans a Network Device by removing the uplink reference
-     * @param networkDevice Network Device to be orphaned
+     * Validates that the uplink of a Network Device exists, and that saving the device won't cause a network loop or
+     * take any device deeper than NetworkDevice.MAX_DEPTH
+     *
+     * @param macAddress       MAC address of the device we're trying to save
+     * @param uplinkMacAddress its uplink, or null if it's a root device
+     * @param pendingUplinks   uplinks written by the current transaction but not yet in the index
+     * @param walked           receives the number of uplinks walked
+     * @throws InvalidNetworkDeviceException    uplink provided doesn't exist, or is too deep
+     * @throws DeviceCausesNetworkLoopException thrown if a network loop was detected
      */
-    private void orphanDevice(NetworkDevice networkDevice) {
-        networkDevice.setUplink(null);
-        repository.save(networkDevice);
-        logger.info(String.format("Orphaned Network Device: %s", networkDevice.getMacAddress()));
+    private void validateUplink(MacAddress macAddress, MacAddress uplinkMacAddress, Map<MacAddress, MacAddress> pendingUplinks, IntConsumer walked) throws InvalidNetworkDeviceException, DeviceCausesNetworkLoopException {
+        if (!nonNull(uplinkMacAddress)) {
+            return;
+        }
+
+        if (!index.contains(uplinkMacAddress) && !pendingUplinks.containsKey(uplinkMacAddress)) {
+            throw new InvalidNetworkDeviceException(String.format("Invalid uplink: %s - device not found", uplinkMacAddress));
+        }
+
+        int uplinksAbove = validateNoNetworkLoop(macAddress, uplinkMacAddress, pendingUplinks, walked);
+
+        // devices below it move along, as deep as the index has them below the device
+        int depth = uplinksAbove + 1 + Math.max(index.getDepthBelow(macAddress), 0);
+
+        if (depth > NetworkDevice.MAX_DEPTH) {
+            throw new InvalidNetworkDeviceException(String.format("Invalid uplink: %s - devices would sit %d levels deep, more than the maximum of %d", uplinkMacAddress, depth, NetworkDevice.MAX_DEPTH));
+        }
     }
 
     /**
-     * Validates that saving a Network Device won't cause a network loop
+     * Validates that saving a Network Device won't cause a network loop. The uplink chain is walked iteratively in
+     * the topology index, so the check doesn't query the database no matter how deep the device sits
      *
      * @param macAddress MAC address of the device we're trying to save
      * @param uplinkMacAddress An uplink of it
+     * @param pendingUplinks uplinks written by the current transaction but not yet in the index
+     * @param walked receives the number of uplinks walked
+     * @return number of uplinks the device has once saved, all the way up to its root device
      * @throws DeviceCausesNetworkLoopException thrown if a network loop was detected
      */
-    private void validateNoNetworkLoop(String macAddress, String uplinkMacAddress) throws DeviceCausesNetworkLoopException, InvalidNetworkDeviceException {
-        if (!nonNull(uplinkMacAddress)) {
-            return;
+    private int validateNoNetworkLoop(MacAddress macAddress, MacAddress uplinkMacAddress, Map<MacAddress, MacAddress> pendingUplinks, IntConsumer walked) throws DeviceCausesNetworkLoopException {
+        Timer.Sample sample = metrics.start();
+        List<MacAddress> loop;
+        int[] uplinksWalked = new int[1];
+
+        try {
+            loop = index.findLoop(macAddress, uplinkMacAddress, pendingUplinks, walked.andThen(metrics::loopWalked).andThen((depth) -> uplinksWalked[0] = depth));
+        } finally {
+            metrics.stop(sample, "validateNoNetworkLoop");
         }
 
-        if (Objects.equals(macAddress, uplinkMacAddress)) {
-            String errorMessage = String.format(String.format("Invalid uplink device: %s - causes a network loop", uplinkMacAddress));
-            logger.warning(errorMessage);
-            throw new DeviceCausesNetworkLoopException(errorMessage);
+        if (!loop.isEmpty()) {
+            throw new DeviceCausesNetworkLoopException(String.format("Invalid uplink device: %s - causes a network loop: %s", uplinkMacAddress, formatPath(loop)));
         }
 
-        // we will eventually either run out of uplink devices, or find one with a MAC address that matches the one we want to register as a downlink of it
-        validateNoNetworkLoop(macAddress, findByMacAddress(uplinkMacAddress).getUplink());
+        return uplinksWalked[0];
+    }
+
+    /**
+     * @param path devices, each one a downlink of the next
+     * @return the path formatted as 12:34:56:78:90:ab -> 12:34:56:78:90:ac
+     */
+    static String formatPath(List<MacAddress> path) {
+        StringJoiner joiner = new StringJoiner(" -> ");
+        path.forEach((macAddress) -> joiner.add(macAddress.toString()));
+
+        return joiner.toString();
     }
 }
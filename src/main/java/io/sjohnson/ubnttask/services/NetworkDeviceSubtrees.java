@@ -0,0 +1,235 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+
+import java.util.*;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Aggregates of the subtree below every device: the number of devices of each type in it, and the number of levels
+ * it reaches down, so that the impact of taking a device down is known without walking its subtree.
+ * <p>
+ * Not thread-safe, it's kept by the topology index under its lock, and reads its uplinks. A change only walks the
+ * uplink chain of the changed device. Every device counts its downlinks by depth, so a change of a downlink's depth
+ * updates a device's depth in O(log levels) rather than by looking at every downlink, and depths are only updated up
+ * the chain until a device's depth stays the same, O(depth × log levels) in all
+ */
+final class NetworkDeviceSubtrees {
+    private static final NetworkDeviceType[] TYPES = NetworkDeviceType.values();
+
+    private final Map<MacAddress, MacAddress> uplinks;
+
+    // macAddress => aggregates of the subtree starting with the device
+    private final Map<MacAddress, Subtree> subtrees = new HashMap<>();
+
+    NetworkDeviceSubtrees(Map<MacAddress, MacAddress> uplinks) {
+        this.uplinks = uplinks;
+    }
+
+    /**
+     * Adds a new device without downlinks, once it's linked to its uplink
+     *
+     * @param macAddress MAC address of the device
+     * @param type       type of the device
+     */
+    void add(MacAddress macAddress, NetworkDeviceType type) {
+        Subtree subtree = new Subtree(type);
+        subtree.counts[type.ordinal()] = 1;
+        subtrees.put(macAddress, subtree);
+
+        attach(macAddress);
+    }
+
+    /**
+     * Counts a device's new type instead of its old one in its own subtree and in those of its ancestors
+     *
+     * @param macAddress MAC address of the device
+     * @param oldType    type the device had
+     * @param newType    type the device has now
+     */
+    void changeType(MacAddress macAddress, NetworkDeviceType oldType, NetworkDeviceType newType) {
+        subtrees.get(macAddress).type = newType;
+
+        for (MacAddress current = macAddress; nonNull(current); current = uplinks.get(current)) {
+            int[] counts = subtrees.get(current).counts;
+            counts[oldType.ordinal()]--;
+            counts[newType.ordinal()]++;
+        }
+    }
+
+    /**
+     * Adds a device's subtree to the subtrees of its ancestors, once it's linked to its uplink
+     *
+     * @param macAddress MAC address of the device
+     */
+    void attach(MacAddress macAddress) {
+        Subtree subtree = subtrees.get(macAddress);
+        MacAddress uplinkMacAddress = uplinks.get(macAddress);
+
+        for (MacAddress current = uplinkMacAddress; nonNull(current); current = uplinks.get(current)) {
+            subtrees.get(current).add(subtree.counts, 1);
+        }
+
+        if (nonNull(uplinkMacAddress)) {
+            Subtree uplink = subtrees.get(uplinkMacAddress);
+            int uplinkDepth = uplink.depth;
+            uplink.addDownlink(subtree.depth);
+            updateDepths(uplinkMacAddress, uplinkDepth);
+        }
+    }
+
+    /**
+     * Takes a device's subtree out of the subtrees of its former ancestors, once it's unlinked from its uplink
+     *
+     * @param macAddress       MAC address of the device
+     * @param uplinkMacAddress MAC address of the uplink it had
+     */
+    void detach(MacAddress macAddress, MacAddress uplinkMacAddress) {
+        Subtree subtree = subtrees.get(macAddress);
+
+        for (MacAddress current = uplinkMacAddress; nonNull(current); current = uplinks.get(current)) {
+            subtrees.get(current).add(subtree.counts, -1);
+        }
+
+        if (nonNull(uplinkMacAddress)) {
+            Subtree uplink = subtrees.get(uplinkMacAddress);
+            int uplinkDepth = uplink.depth;
+            uplink.removeDownlink(subtree.depth);
+            updateDepths(uplinkMacAddress, uplinkDepth);
+        }
+    }
+
+    /**
+     * Takes a deleted device's subtree out of the subtrees of its former ancestors, once it's unlinked from its uplink,
+     * and forgets the device. Devices below it keep their own subtrees
+     *
+     * @param macAddress       MAC address of the device
+     * @param uplinkMacAddress MAC address of the uplink it had
+     */
+    void remove(MacAddress macAddress, MacAddress uplinkMacAddress) {
+        detach(macAddress, uplinkMacAddress);
+        subtrees.remove(macAddress);
+    }
+
+    /**
+     * Forgets a device without updating anything else, for devices deleted along with their uplink
+     *
+     * @param macAddress MAC address of the device
+     */
+    void forget(MacAddress macAddress) {
+        subtrees.remove(macAddress);
+    }
+
+    /**
+     * Recomputes every subtree in O(devices)
+     *
+     * @param topDown every device, each after its uplink
+     * @param typeOf  type of every device
+     */
+    void rebuild(List<MacAddress> topDown, Map<MacAddress, NetworkDeviceType> typeOf) {
+        subtrees.clear();
+        topDown.forEach((macAddress) -> subtrees.put(macAddress, new Subtree(typeOf.get(macAddress))));
+
+        // bottom-up, so that every device is complete by the time it's added to its uplink
+        for (int i = topDown.size() - 1; i >= 0; i--) {
+            MacAddress macAddress = topDown.get(i);
+            Subtree subtree = subtrees.get(macAddress);
+            subtree.counts[subtree.type.ordinal()]++;
+
+            MacAddress uplinkMacAddress = uplinks.get(macAddress);
+
+            if (nonNull(uplinkMacAddress)) {
+                Subtree uplink = subtrees.get(uplinkMacAddress);
+                uplink.add(subtree.counts, 1);
+                uplink.addDownlink(subtree.depth);
+            }
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return number of devices of each type below the device, by type ordinal, or null if it isn't registered
+     */
+    int[] countsBelow(MacAddress macAddress) {
+        Subtree subtree = subtrees.get(macAddress);
+
+        if (!nonNull(subtree)) {
+            return null;
+        }
+
+        int[] counts = subtree.counts.clone();
+        counts[subtree.type.ordinal()]--;
+
+        return counts;
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return number of levels below the device, 0 if it has no downlinks, or -1 if it isn't registered
+     */
+    int depthBelow(MacAddress macAddress) {
+        Subtree subtree = subtrees.get(macAddress);
+
+        return nonNull(subtree) ? subtree.depth : -1;
+    }
+
+    /**
+     * Moves the depth of a device whose depth changed to its new value in the downlink depths of its uplink, and so on
+     * up the uplink chain until a device's depth stays the same
+     *
+     * @param macAddress MAC address of the device
+     * @param oldDepth   depth the device had before the change
+     */
+    private void updateDepths(MacAddress macAddress, int oldDepth) {
+        Subtree subtree = subtrees.get(macAddress);
+
+        for (MacAddress current = uplinks.get(macAddress); nonNull(current) && subtree.depth != oldDepth; current = uplinks.get(current)) {
+            Subtree uplink = subtrees.get(current);
+            int uplinkDepth = uplink.depth;
+            uplink.removeDownlink(oldDepth);
+            uplink.addDownlink(subtree.depth);
+
+            subtree = uplink;
+            oldDepth = uplinkDepth;
+        }
+    }
+
+    private static final class Subtree {
+        // number of devices of each type in the subtree, including the device itself, by type ordinal
+        private final int[] counts = new int[TYPES.length];
+
+        // number of levels below the device
+        private int depth;
+
+        // depth of a downlink => number of downlinks with that depth, null while the device has no downlinks
+        private TreeMap<Integer, Integer> downlinkDepths;
+
+        private NetworkDeviceType type;
+
+        private Subtree(NetworkDeviceType type) {
+            this.type = type;
+        }
+
+        private void add(int[] otherCounts, int sign) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += sign * otherCounts[i];
+            }
+        }
+
+        private void addDownlink(int downlinkDepth) {
+            if (!nonNull(downlinkDepths)) {
+                downlinkDepths = new TreeMap<>();
+            }
+
+            downlinkDepths.merge(downlinkDepth, 1, Integer::sum);
+            depth = downlinkDepths.lastKey() + 1;
+        }
+
+        private void removeDownlink(int downlinkDepth) {
+            downlinkDepths.computeIfPresent(downlinkDepth, (key, count) -> count > 1 ? count - 1 : null);
+            depth = downlinkDepths.isEmpty() ? 0 : downlinkDepths.lastKey() + 1;
+        }
+    }
+}
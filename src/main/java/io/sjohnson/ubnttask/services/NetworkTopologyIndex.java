@@ -0,0 +1,1055 @@
+package io.sjohnson.ubnttask.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceImpactDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDevicePathDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceTopologyDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * In-memory adjacency index of the device topology, so topology reads never have to walk the JPA graph.
+ * <p>
+ * The index is loaded once on startup and is afterwards only changed by the service, after the transaction that
+ * changed the database commits. Writers lock the devices they change, and share the locks of the uplink chains they
+ * validate against, until their transaction completes. Writes to unrelated subtrees run concurrently, while
+ * conflicting ones are applied to the index in the order in which they were committed.
+ * <p>
+ * When a topology snapshot file is available, the index is warmed from it on startup and checked against the
+ * database in the background. Reads are served from the snapshot in the meantime, while writers wait for the check.
+ */
+@Component
+public class NetworkTopologyIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkTopologyIndex.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // number of devices from which root trees are serialized in parallel
+    private static final int PARALLEL_THRESHOLD = 10_000;
+
+    private static final int LOCK_STRIPES = 1024;
+
+    private final NetworkDeviceRepository repository;
+
+    private final NetworkDeviceDTOMapper mapper;
+
+    private final NetworkTopologySnapshotFile snapshotFile;
+
+    // guards the maps below; readers never wait on the database, only on a writer applying a committed change
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // held by a writing transaction from its first read until it completes
+    private final DeviceLockStripes deviceLocks = new DeviceLockStripes(LOCK_STRIPES);
+
+    // macAddress => device
+    private final Map<MacAddress, NetworkDeviceDTO> devices = new HashMap<>();
+
+    // macAddress => uplink macAddress
+    private final Map<MacAddress, MacAddress> uplinks = new HashMap<>();
+
+    // macAddress => downlink macAddresses
+    private final Map<MacAddress, NavigableSet<MacAddress>> downlinks = new HashMap<>();
+
+    private final SortedSet<MacAddress> roots = new TreeSet<>();
+
+    // kept in step with the uplinks above, for path queries
+    private final NetworkDeviceAncestors ancestors = new NetworkDeviceAncestors();
+
+    // kept in step with the maps above, for impact queries
+    private final NetworkDeviceSubtrees subtrees = new NetworkDeviceSubtrees(uplinks);
+
+    // bumped every time a change is applied, while holding the write lock
+    private volatile long version;
+
+    // completes once an index warmed from a snapshot has been checked against the database
+    private volatile CompletableFuture<Void> verified = CompletableFuture.completedFuture(null);
+
+    public NetworkTopologyIndex(NetworkDeviceRepository repository, NetworkDeviceDTOMapper mapper, NetworkTopologySnapshotFile snapshotFile) {
+        this.repository = repository;
+        this.mapper = mapper;
+        this.snapshotFile = snapshotFile;
+    }
+
+    @PostConstruct
+    public void load() {
+        Optional<List<NetworkDeviceDTO>> snapshot = nonNull(snapshotFile) ? snapshotFile.read() : Optional.empty();
+
+        if (snapshot.isEmpty()) {
+            replaceAll(readDatabase());
+            return;
+        }
+
+        replaceAll(snapshot.get());
+        LOGGER.info("Warmed topology index with {} devices from snapshot, verifying against database", snapshot.get().size());
+
+        CompletableFuture<Void> verification = new CompletableFuture<>();
+        verified = verification;
+
+        Thread verifier = new Thread(() -> verify(verification), "topology-snapshot-verifier");
+        verifier.setDaemon(true);
+        verifier.start();
+    }
+
+    /**
+     * Waits until the index has been checked against the database, if it was warmed from a snapshot
+     */
+    public void awaitVerified() {
+        verified.join();
+    }
+
+    /**
+     * @return whether the index is known to match the database, which it may not while a snapshot it was warmed from
+     * is being verified, or if the verification failed
+     */
+    public boolean isVerified() {
+        return verified.isDone() && !verified.isCompletedExceptionally();
+    }
+
+    private List<NetworkDeviceDTO> readDatabase() {
+        // databases written before paths were kept get them on their first startup
+        repository.fillMissingPaths();
+
+        return repository.findAllFlat().stream().map(mapper::toDto).toList();
+    }
+
+    // nothing can be committed in the meantime, as writers wait for the verification
+    private void verify(CompletableFuture<Void> verification) {
+        try {
+            List<NetworkDeviceDTO> databaseDevices = readDatabase();
+
+            if (matches(databaseDevices)) {
+                LOGGER.info("Topology snapshot matches database");
+            } else {
+                LOGGER.warn("Topology snapshot is out of date, reloaded {} devices from database", databaseDevices.size());
+                replaceAll(databaseDevices);
+            }
+
+            verification.complete(null);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to verify topology snapshot against database", e);
+            verification.completeExceptionally(e);
+        }
+    }
+
+    private boolean matches(List<NetworkDeviceDTO> databaseDevices) {
+        lock.readLock().lock();
+
+        try {
+            return databaseDevices.size() == devices.size() && databaseDevices.stream().allMatch((device) -> {
+                NetworkDeviceDTO indexed = devices.get(MacAddress.parse(device.getMacAddress()));
+
+                return nonNull(indexed) && isSame(indexed, device);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void replaceAll(List<NetworkDeviceDTO> newDevices) {
+        lock.writeLock().lock();
+
+        try {
+            devices.clear();
+            uplinks.clear();
+            downlinks.clear();
+            roots.clear();
+
+            newDevices.forEach(this::link);
+            ancestors.clear();
+            roots.forEach(this::updateAncestors);
+
+            Map<MacAddress, NetworkDeviceType> types = new HashMap<>(devices.size() * 4 / 3 + 1);
+            devices.forEach((macAddress, device) -> types.put(macAddress, NetworkDeviceType.valueOf(device.getType())));
+            subtrees.rebuild(topDown(), types);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of a device
+     * @return the lock stripe the device is locked by while it's being saved or deleted, which devices only share by
+     * chance
+     */
+    public int lockStripeOf(MacAddress macAddress) {
+        return deviceLocks.stripeOf(macAddress);
+    }
+
+    /**
+     * Locks what saving a device relies on until the current transaction completes: the device itself, and the
+     * uplink chain it's checked for network loops against. Must be called before the transaction reads anything it
+     * relies on for validation, so that no conflicting writer can commit in between
+     *
+     * @param macAddress       MAC address of the device to be saved
+     * @param uplinkMacAddress MAC address of its uplink, or null if it's a root device
+     */
+    public void lockForSave(MacAddress macAddress, MacAddress uplinkMacAddress) {
+        lockForTransaction(() -> {
+            DeviceLockStripes.LockSet lockSet = deviceLocks.newLockSet();
+            lockSet.exclusive(macAddress);
+            addUplinkChain(lockSet, uplinkMacAddress, new HashSet<>());
+
+            return lockSet;
+        });
+    }
+
+    /**
+     * Same as lockForSave(), for every device in a batch
+     *
+     * @param devices devices to be saved, each with a valid MAC address and uplink
+     */
+    public void lockForSaveAll(Collection<NetworkDeviceDTO> devices) {
+        lockForTransaction(() -> {
+            DeviceLockStripes.LockSet lockSet = deviceLocks.newLockSet();
+            Set<MacAddress> visited = new HashSet<>();
+
+            for (NetworkDeviceDTO device : devices) {
+                lockSet.exclusive(MacAddress.parse(device.getMacAddress()));
+
+                if (nonNull(device.getUplink())) {
+                    addUplinkChain(lockSet, MacAddress.parse(device.getUplink()), visited);
+                }
+            }
+
+            return lockSet;
+        });
+    }
+
+    /**
+     * Locks a device about to be deleted until the current transaction completes, along with every device whose
+     * uplink the delete changes: its downlinks, or its whole subtree when they're deleted as well
+     *
+     * @param macAddress MAC address of the device to be deleted
+     * @param cascade    whether the whole subtree below the device is deleted with it
+     */
+    public void lockForDelete(MacAddress macAddress, boolean cascade) {
+        lockForTransaction(() -> {
+            DeviceLockStripes.LockSet lockSet = deviceLocks.newLockSet();
+            lockSet.exclusive(macAddress);
+
+            Deque<MacAddress> pending = new ArrayDeque<>(downlinks.getOrDefault(macAddress, Collections.emptyNavigableSet()));
+
+            while (!pending.isEmpty()) {
+                MacAddress current = pending.pop();
+                lockSet.exclusive(current);
+
+                if (cascade) {
+                    pending.addAll(downlinks.getOrDefault(current, Collections.emptyNavigableSet()));
+                }
+            }
+
+            return lockSet;
+        });
+    }
+
+    /**
+     * Adds or updates a device once the current transaction commits
+     *
+     * @param device device as it was persisted
+     */
+    public void putOnCommit(NetworkDeviceDTO device) {
+        NetworkDeviceDTO copy = copyOf(device);
+        onCommit(() -> put(copy));
+    }
+
+    /**
+     * Adds or updates devices once the current transaction commits
+     *
+     * @param devices devices as they were persisted
+     */
+    public void putAllOnCommit(List<NetworkDeviceDTO> devices) {
+        List<NetworkDeviceDTO> copies = devices.stream().map(NetworkTopologyIndex::copyOf).toList();
+        onCommit(() -> putAll(copies));
+    }
+
+    /**
+     * Removes a device once the current transaction commits, orphaning its downlinks
+     *
+     * @param macAddress MAC address of the deleted device
+     */
+    public void removeOnCommit(MacAddress macAddress) {
+        onCommit(() -> remove(macAddress));
+    }
+
+    /**
+     * @return version of the topology, increasing with every committed change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Runs a read of the index while no change can be applied, so that what it read is labelled with the version it
+     * was read at. The read can call the index's other reads
+     *
+     * @param read read of the index
+     * @return version of the topology => what the read returned
+     */
+    public <T> Map.Entry<Long, T> readAtVersion(Supplier<T> read) {
+        lock.readLock().lock();
+
+        try {
+            return Map.entry(version, read.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a device along with all devices below it once the current transaction commits
+     *
+     * @param macAddress MAC address of the deleted subtree's root device
+     */
+    public void removeSubtreeOnCommit(MacAddress macAddress) {
+        onCommit(() -> removeSubtree(macAddress));
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return a copy of the device, or null if it isn't registered
+     */
+    public NetworkDeviceDTO get(MacAddress macAddress) {
+        lock.readLock().lock();
+
+        try {
+            NetworkDeviceDTO device = devices.get(macAddress);
+
+            return nonNull(device) ? copyOf(device) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return whether the device is registered
+     */
+    public boolean contains(MacAddress macAddress) {
+        lock.readLock().lock();
+
+        try {
+            return devices.containsKey(macAddress);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until the index has been verified first, the same way writers do
+     *
+     * @param device device with a valid MAC address and uplink
+     * @return whether the device is registered exactly as given, so that saving it wouldn't change anything
+     */
+    public boolean isUnchanged(NetworkDeviceDTO device) {
+        // a device matching a snapshot the database doesn't match would otherwise be acknowledged without being saved
+        awaitVerified();
+        lock.readLock().lock();
+
+        try {
+            NetworkDeviceDTO registered = devices.get(MacAddress.parse(device.getMacAddress()));
+
+            return nonNull(registered) && isSame(registered, device);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return copies of all registered devices, level by level starting with the root devices, so that every device
+     * comes after its uplink
+     */
+    public List<NetworkDeviceDTO> getDevicesTopDown() {
+        lock.readLock().lock();
+
+        try {
+            return topDown().stream().map((macAddress) -> copyOf(devices.get(macAddress))).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks the aggregates of the device's subtree up, kept up to date with every change, so it's O(1) however many
+     * devices are below it
+     *
+     * @param macAddress MAC address of the device
+     * @return devices below the device by type, and the number of levels below it, or null if it isn't registered
+     */
+    public NetworkDeviceImpactDTO getImpact(MacAddress macAddress) {
+        lock.readLock().lock();
+
+        try {
+            int[] counts = subtrees.countsBelow(macAddress);
+
+            if (!nonNull(counts)) {
+                return null;
+            }
+
+            Map<String, Integer> devicesBelowByType = new LinkedHashMap<>();
+            int devicesBelow = 0;
+
+            for (NetworkDeviceType type : NetworkDeviceType.values()) {
+                devicesBelowByType.put(type.toString(), counts[type.ordinal()]);
+                devicesBelow += counts[type.ordinal()];
+            }
+
+            return new NetworkDeviceImpactDTO(macAddress.toString(), devicesBelow, devicesBelowByType, subtrees.depthBelow(macAddress));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return number of levels below the device, 0 if it has no downlinks, or -1 if it isn't registered
+     */
+    public int getDepthBelow(MacAddress macAddress) {
+        lock.readLock().lock();
+
+        try {
+            return subtrees.depthBelow(macAddress);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of registered devices
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return devices.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return MAC address of the device's uplink, or null if it's a root device or isn't registered
+     */
+    public MacAddress getUplink(MacAddress macAddress) {
+        lock.readLock().lock();
+
+        try {
+            return uplinks.get(macAddress);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks up the uplink chain starting at a prospective uplink of a device, looking for the device itself.
+     * Runs in O(depth) without touching the database
+     *
+     * @param macAddress       MAC address of the device
+     * @param uplinkMacAddress MAC address of its prospective uplink
+     * @return the devices forming the loop, starting and ending with the device, or an empty list if there is none
+     */
+    public List<MacAddress> findLoop(MacAddress macAddress, MacAddress uplinkMacAddress) {
+        return findLoop(macAddress, uplinkMacAddress, (depth) -> {});
+    }
+
+    /**
+     * @param macAddress       MAC address of the device
+     * @param uplinkMacAddress MAC address of its prospective uplink
+     * @param walked           receives the number of uplinks walked
+     * @return same as findLoop(macAddress, uplinkMacAddress)
+     */
+    public List<MacAddress> findLoop(MacAddress macAddress, MacAddress uplinkMacAddress, IntConsumer walked) {
+        return findLoop(macAddress, uplinkMacAddress, Collections.emptyMap(), walked);
+    }
+
+    /**
+     * @param macAddress       MAC address of the device
+     * @param uplinkMacAddress MAC address of its prospective uplink
+     * @param pendingUplinks   uplinks written by the current transaction but not yet in the index, which take precedence
+     *                         over the ones in it. Root devices map to null
+     * @param walked           receives the number of uplinks walked
+     * @return same as findLoop(macAddress, uplinkMacAddress)
+     */
+    public List<MacAddress> findLoop(MacAddress macAddress, MacAddress uplinkMacAddress, Map<MacAddress, MacAddress> pendingUplinks, IntConsumer walked) {
+        lock.readLock().lock();
+
+        try {
+            List<MacAddress> path = new ArrayList<>();
+            path.add(macAddress);
+            int maxLength = devices.size() + pendingUplinks.size() + 1;
+
+            // the chain can't be longer than the number of devices, unless the index itself already holds a loop
+            for (MacAddress current = uplinkMacAddress; nonNull(current) && path.size() <= maxLength; current = pendingUplinks.containsKey(current) ? pendingUplinks.get(current) : uplinks.get(current)) {
+                path.add(current);
+
+                if (current.equals(macAddress)) {
+                    walked.accept(path.size() - 1);
+                    return path;
+                }
+            }
+
+            walked.accept(path.size() - 1);
+            return Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the lowest common ancestor of two devices in O(log depth) from the binary lifting table, then walks the
+     * uplinks from both devices up to it
+     *
+     * @param macAddress      MAC address of the device the path starts with
+     * @param otherMacAddress MAC address of the device the path ends with
+     * @return path between the devices, or null if either isn't registered or they're in different trees
+     */
+    public NetworkDevicePathDTO getPath(MacAddress macAddress, MacAddress otherMacAddress) {
+        lock.readLock().lock();
+
+        try {
+            if (!devices.containsKey(macAddress) || !devices.containsKey(otherMacAddress)) {
+                return null;
+            }
+
+            MacAddress lowestCommonAncestor = ancestors.lowestCommonAncestorOf(macAddress, otherMacAddress);
+
+            if (!nonNull(lowestCommonAncestor)) {
+                return null;
+            }
+
+            List<NetworkDeviceDTO> hops = new ArrayList<>();
+
+            for (MacAddress current = macAddress; !current.equals(lowestCommonAncestor); current = uplinks.get(current)) {
+                hops.add(copyOf(devices.get(current)));
+            }
+
+            hops.add(copyOf(devices.get(lowestCommonAncestor)));
+            List<NetworkDeviceDTO> otherHops = new ArrayList<>();
+
+            for (MacAddress current = otherMacAddress; !current.equals(lowestCommonAncestor); current = uplinks.get(current)) {
+                otherHops.add(copyOf(devices.get(current)));
+            }
+
+            hops.addAll(otherHops.reversed());
+
+            return new NetworkDevicePathDTO(hops, copyOf(devices.get(lowestCommonAncestor)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return nested topology trees of all root devices, ordered by MAC address
+     */
+    public List<NetworkDeviceTopologyDTO> getTopology() {
+        return getTopology(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxDepth    number of downlink levels to include below each root device
+     * @param maxChildren number of downlinks to include per device
+     * @return nested topology trees of all root devices, ordered by MAC address. Devices whose downlinks were left out
+     * carry a cursor to fetch them with
+     */
+    public List<NetworkDeviceTopologyDTO> getTopology(int maxDepth, int maxChildren) {
+        lock.readLock().lock();
+
+        try {
+            List<NetworkDeviceTopologyDTO> topology = new ArrayList<>(roots.size());
+            roots.forEach((root) -> topology.add(buildTree(root, null, maxDepth, maxChildren)));
+
+            return topology;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param macAddress MAC address of the device
+     * @return nested topology tree starting with the device, or null if it isn't registered
+     */
+    public NetworkDeviceTopologyDTO getTopologyFrom(MacAddress macAddress) {
+        return getTopologyFrom(macAddress, null, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param macAddress  MAC address of the device
+     * @param after       downlink of the device to continue after, or null to start with its first downlink
+     * @param maxDepth    number of downlink levels to include below the device
+     * @param maxChildren number of downlinks to include per device
+     * @return nested topology tree starting with the device, or null if it isn't registered. Devices whose downlinks
+     * were left out carry a cursor to fetch them with
+     */
+    public NetworkDeviceTopologyDTO getTopologyFrom(MacAddress macAddress, MacAddress after, int maxDepth, int maxChildren) {
+        lock.readLock().lock();
+
+        try {
+            return devices.containsKey(macAddress) ? buildTree(macAddress, after, maxDepth, maxChildren) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the topology as nested JSON objects keyed by MAC address, straight from the adjacency maps. Once the
+     * topology is large enough, root trees are written in parallel on the common fork-join pool
+     *
+     * @return macAddress => downlinks<macAddress>[] for all root devices, as JSON
+     */
+    public byte[] getSimpleTopologyJson() {
+        lock.readLock().lock();
+
+        try {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+                generator.writeStartObject();
+
+                if (devices.size() >= PARALLEL_THRESHOLD && roots.size() > 1) {
+                    // the workers only read, and no writer can get in while this thread holds the read lock
+                    List<String> rootTrees = roots.parallelStream().map(this::writeSimpleTree).toList();
+                    Iterator<String> rootTree = rootTrees.iterator();
+
+                    for (MacAddress root : roots) {
+                        generator.writeFieldName(root.toString());
+                        generator.writeRawValue(rootTree.next());
+                    }
+                } else {
+                    for (MacAddress root : roots) {
+                        generator.writeFieldName(root.toString());
+                        writeSimpleTree(generator, root);
+                    }
+                }
+
+                generator.writeEndObject();
+            }
+
+            return json.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String writeSimpleTree(MacAddress macAddress) {
+        StringWriter json = new StringWriter();
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+            writeSimpleTree(generator, macAddress);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return json.toString();
+    }
+
+    private void writeSimpleTree(JsonGenerator generator, MacAddress macAddress) throws IOException {
+        Deque<Iterator<MacAddress>> pending = new ArrayDeque<>();
+
+        generator.writeStartObject();
+        pending.push(downlinksOf(macAddress).iterator());
+
+        // iterative, so that long daisy chains can't overflow the stack
+        while (!pending.isEmpty()) {
+            Iterator<MacAddress> siblings = pending.peek();
+
+            if (!siblings.hasNext()) {
+                generator.writeEndObject();
+                pending.pop();
+                continue;
+            }
+
+            MacAddress downlink = siblings.next();
+            generator.writeFieldName(downlink.toString());
+            generator.writeStartObject();
+            pending.push(downlinksOf(downlink).iterator());
+        }
+    }
+
+    private NetworkDeviceTopologyDTO buildTree(MacAddress macAddress, MacAddress after, int maxDepth, int maxChildren) {
+        NetworkDeviceTopologyDTO root = new NetworkDeviceTopologyDTO(devices.get(macAddress));
+        Deque<PendingNode> pending = new ArrayDeque<>();
+        pending.push(new PendingNode(macAddress, root, 0));
+
+        // iterative, so that long daisy chains can't overflow the stack
+        while (!pending.isEmpty()) {
+            PendingNode node = pending.pop();
+            NavigableSet<MacAddress> nodeDownlinks = downlinksOf(node.macAddress);
+
+            // only the device the tree starts with can be continued from a cursor
+            if (node.node == root && nonNull(after)) {
+                nodeDownlinks = nodeDownlinks.tailSet(after, false);
+            }
+
+            if (nodeDownlinks.isEmpty()) {
+                continue;
+            }
+
+            if (node.depth >= maxDepth) {
+                node.node.setDownlinksCursor(DownlinksCursor.encode(node.macAddress, node.node == root ? after : null));
+                continue;
+            }
+
+            MacAddress lastDownlink = null;
+
+            for (MacAddress downlink : nodeDownlinks) {
+                if (node.node.getDownlinks().size() == maxChildren) {
+                    node.node.setDownlinksCursor(DownlinksCursor.encode(node.macAddress, lastDownlink));
+                    break;
+                }
+
+                NetworkDeviceTopologyDTO child = new NetworkDeviceTopologyDTO(devices.get(downlink));
+                node.node.getDownlinks().add(child);
+                pending.push(new PendingNode(downlink, child, node.depth + 1));
+                lastDownlink = downlink;
+            }
+        }
+
+        return root;
+    }
+
+    private NavigableSet<MacAddress> downlinksOf(MacAddress macAddress) {
+        return downlinks.getOrDefault(macAddress, Collections.emptyNavigableSet());
+    }
+
+    private void put(NetworkDeviceDTO device) {
+        lock.writeLock().lock();
+
+        try {
+            MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+
+            if (relink(device)) {
+                updateAncestors(macAddress);
+            }
+
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putAll(List<NetworkDeviceDTO> devices) {
+        lock.writeLock().lock();
+
+        try {
+            Set<MacAddress> moved = new LinkedHashSet<>();
+
+            devices.forEach((device) -> {
+                if (relink(device)) {
+                    moved.add(MacAddress.parse(device.getMacAddress()));
+                }
+            });
+
+            // devices below another moved device are recomputed along with it
+            Map<MacAddress, Boolean> belowMoved = new HashMap<>();
+            moved.stream().filter((macAddress) -> !isAtOrBelowMoved(uplinks.get(macAddress), moved, belowMoved)).forEach(this::updateAncestors);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(MacAddress macAddress) {
+        lock.writeLock().lock();
+
+        try {
+            MacAddress uplink = uplinks.get(macAddress);
+            unlink(macAddress);
+            subtrees.remove(macAddress, uplink);
+            devices.remove(macAddress);
+            ancestors.remove(macAddress);
+
+            // downlinks of a deleted device become root devices
+            SortedSet<MacAddress> orphans = downlinks.remove(macAddress);
+
+            if (nonNull(orphans)) {
+                orphans.forEach((orphan) -> {
+                    devices.get(orphan).setUplink(null);
+                    uplinks.remove(orphan);
+                    roots.add(orphan);
+                    updateAncestors(orphan);
+                });
+            }
+
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeSubtree(MacAddress macAddress) {
+        lock.writeLock().lock();
+
+        try {
+            MacAddress uplink = uplinks.get(macAddress);
+            unlink(macAddress);
+            subtrees.remove(macAddress, uplink);
+
+            Deque<MacAddress> pending = new ArrayDeque<>();
+            pending.push(macAddress);
+
+            while (!pending.isEmpty()) {
+                MacAddress current = pending.pop();
+                devices.remove(current);
+                uplinks.remove(current);
+                ancestors.remove(current);
+                subtrees.forget(current);
+
+                SortedSet<MacAddress> removedDownlinks = downlinks.remove(current);
+
+                if (nonNull(removedDownlinks)) {
+                    removedDownlinks.forEach(pending::push);
+                }
+            }
+
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or updates a device, along with the subtree aggregates of its former and new ancestors
+     *
+     * @param device device as it was persisted
+     * @return whether the device was moved, as by isMoved()
+     */
+    private boolean relink(NetworkDeviceDTO device) {
+        MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+        NetworkDeviceDTO registered = devices.get(macAddress);
+        MacAddress uplink = uplinks.get(macAddress);
+        boolean moved = isMoved(macAddress, device);
+
+        unlink(macAddress);
+
+        if (nonNull(registered) && moved) {
+            subtrees.detach(macAddress, uplink);
+        }
+
+        link(device);
+
+        if (!nonNull(registered)) {
+            subtrees.add(macAddress, NetworkDeviceType.valueOf(device.getType()));
+            return moved;
+        }
+
+        if (moved) {
+            subtrees.attach(macAddress);
+        }
+
+        if (!Objects.equals(registered.getType(), device.getType())) {
+            subtrees.changeType(macAddress, NetworkDeviceType.valueOf(registered.getType()), NetworkDeviceType.valueOf(device.getType()));
+        }
+
+        return moved;
+    }
+
+    // MAC addresses of all devices, level by level starting with the root devices
+    private List<MacAddress> topDown() {
+        List<MacAddress> topDown = new ArrayList<>(roots);
+
+        for (int i = 0; i < topDown.size(); i++) {
+            topDown.addAll(downlinksOf(topDown.get(i)));
+        }
+
+        return topDown;
+    }
+
+    // whether the device is new, or gets another uplink, which changes its ancestors and those of the devices below it
+    private boolean isMoved(MacAddress macAddress, NetworkDeviceDTO device) {
+        return !devices.containsKey(macAddress) || !Objects.equals(uplinks.get(macAddress), parseUplink(device));
+    }
+
+    // memoized in belowMoved, so that a batch walks every uplink chain only once
+    private boolean isAtOrBelowMoved(MacAddress macAddress, Set<MacAddress> moved, Map<MacAddress, Boolean> belowMoved) {
+        List<MacAddress> chain = new ArrayList<>();
+        boolean result = false;
+
+        for (MacAddress current = macAddress; nonNull(current); current = uplinks.get(current)) {
+            Boolean known = belowMoved.get(current);
+
+            if (nonNull(known) || moved.contains(current)) {
+                result = !nonNull(known) || known;
+                break;
+            }
+
+            chain.add(current);
+        }
+
+        for (MacAddress current : chain) {
+            belowMoved.put(current, result);
+        }
+
+        return result;
+    }
+
+    private void updateAncestors(MacAddress macAddress) {
+        ancestors.update(macAddress, uplinks::get, this::downlinksOf);
+    }
+
+    private void link(NetworkDeviceDTO device) {
+        MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+
+        devices.put(macAddress, device);
+
+        if (nonNull(device.getUplink())) {
+            MacAddress uplink = MacAddress.parse(device.getUplink());
+            uplinks.put(macAddress, uplink);
+            downlinks.computeIfAbsent(uplink, (key) -> new TreeSet<>()).add(macAddress);
+        } else {
+            roots.add(macAddress);
+        }
+    }
+
+    private void unlink(MacAddress macAddress) {
+        MacAddress uplink = uplinks.remove(macAddress);
+
+        if (nonNull(uplink)) {
+            SortedSet<MacAddress> siblings = downlinks.get(uplink);
+            siblings.remove(macAddress);
+
+            if (siblings.isEmpty()) {
+                downlinks.remove(uplink);
+            }
+        } else {
+            roots.remove(macAddress);
+        }
+    }
+
+    private static final class PendingNode {
+        private final MacAddress macAddress;
+
+        private final NetworkDeviceTopologyDTO node;
+
+        // number of levels below the device the tree starts with
+        private final int depth;
+
+        private PendingNode(MacAddress macAddress, NetworkDeviceTopologyDTO node, int depth) {
+            this.macAddress = macAddress;
+            this.node = node;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Locks the stripes computed from the index until the current transaction completes. The index can change between
+     * computing them and getting hold of them, so they're computed again once held, and taken again if they no longer
+     * cover what has to be locked
+     *
+     * @param lockSet computes the stripes to be locked, called while holding the index's read lock
+     */
+    private void lockForTransaction(Supplier<DeviceLockStripes.LockSet> lockSet) {
+        // writes validated against a snapshot the database doesn't match could break the topology
+        awaitVerified();
+
+        DeviceLockStripes.LockSet held = (DeviceLockStripes.LockSet) TransactionSynchronizationManager.getResource(deviceLocks);
+
+        if (nonNull(held)) {
+            // taking more stripes out of order could deadlock, so a transaction gets a single topology change
+            if (!held.covers(readLocked(lockSet))) {
+                throw new IllegalStateException("Transaction already holds the locks of another topology change");
+            }
+
+            return;
+        }
+
+        DeviceLockStripes.LockSet wanted = readLocked(lockSet);
+
+        while (true) {
+            wanted.lock();
+            DeviceLockStripes.LockSet needed = readLocked(lockSet);
+
+            if (wanted.covers(needed)) {
+                break;
+            }
+
+            // a device's uplink changed before the locks were held, so its current chain may not be locked
+            wanted.unlock();
+            wanted = needed;
+        }
+
+        DeviceLockStripes.LockSet locked = wanted;
+        TransactionSynchronizationManager.bindResource(deviceLocks, locked);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResource(deviceLocks);
+                locked.unlock();
+            }
+        });
+    }
+
+    private DeviceLockStripes.LockSet readLocked(Supplier<DeviceLockStripes.LockSet> lockSet) {
+        lock.readLock().lock();
+
+        try {
+            return lockSet.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // stops at devices already visited, whose chain is already locked, which also ends the walk on a loop
+    private void addUplinkChain(DeviceLockStripes.LockSet lockSet, MacAddress uplinkMacAddress, Set<MacAddress> visited) {
+        for (MacAddress current = uplinkMacAddress; nonNull(current) && visited.add(current); current = uplinks.get(current)) {
+            lockSet.shared(current);
+        }
+    }
+
+    /**
+     * @param device      a device
+     * @param otherDevice another device, or another version of it
+     * @return whether both devices have the same MAC address, uplink, type and friendly name
+     */
+    static boolean isSame(NetworkDeviceDTO device, NetworkDeviceDTO otherDevice) {
+        return MacAddress.parse(device.getMacAddress()).equals(MacAddress.parse(otherDevice.getMacAddress()))
+                && Objects.equals(parseUplink(device), parseUplink(otherDevice))
+                && Objects.equals(device.getType(), otherDevice.getType())
+                && Objects.equals(device.getFriendlyName(), otherDevice.getFriendlyName());
+    }
+
+    private static MacAddress parseUplink(NetworkDeviceDTO device) {
+        return nonNull(device.getUplink()) ? MacAddress.parse(device.getUplink()) : null;
+    }
+
+    private static NetworkDeviceDTO copyOf(NetworkDeviceDTO device) {
+        return new NetworkDeviceDTO(device.getMacAddress(), device.getUplink(), device.getType(), device.getFriendlyName());
+    }
+
+    private static void onCommit(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package io.sjohnson.ubnttask.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.constructs.NetworkTopologySnapshot;
+import io.sjohnson.ubnttask.jfr.TopologyBuildEvent;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Keeps the serialized topology of the latest topology version, so polling an unchanged topology neither rebuilds
+ * nor reserializes it
+ */
+@Component
+public class NetworkTopologySnapshotCache {
+
+    private final NetworkTopologyIndex index;
+
+    private final ObjectMapper objectMapper;
+
+    // tells apart versions of different runs, as the version starts over on every startup
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+
+    private final Snapshots topology = new Snapshots("full");
+
+    private final Snapshots simpleTopology = new Snapshots("simple");
+
+    public NetworkTopologySnapshotCache(NetworkTopologyIndex index, ObjectMapper objectMapper) {
+        this.index = index;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return nested topology trees of all root devices, serialized
+     */
+    public NetworkTopologySnapshot getTopology() {
+        // the trees are built under the index's read lock, and serialized once it's released
+        return topology.get(() -> build(index::getTopology, this::serialize));
+    }
+
+    /**
+     * @return macAddress => downlinks<macAddress>[] for all root devices, serialized
+     */
+    public NetworkTopologySnapshot getSimpleTopology() {
+        return simpleTopology.get(() -> build(index::getSimpleTopologyJson, Function.identity()));
+    }
+
+    /**
+     * @param read      reads the topology from the index
+     * @param serialize serializes what was read, once the index's read lock is released
+     * @return the topology, serialized, along with the version and number of devices it was read from, all read under
+     * the same read lock
+     */
+    private <T> Build build(Supplier<T> read, Function<T, byte[]> serialize) {
+        int[] nodes = new int[1];
+        Map.Entry<Long, T> topology = index.readAtVersion(() -> {
+            nodes[0] = index.size();
+            return read.get();
+        });
+
+        return new Build(topology.getKey(), nodes[0], serialize.apply(topology.getValue()));
+    }
+
+    private byte[] serialize(Object topology) {
+        try {
+            return objectMapper.writeValueAsBytes(topology);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private class Snapshots {
+        private final String name;
+
+        private final AtomicReference<NetworkTopologySnapshot> latest = new AtomicReference<>();
+
+        // only one thread rebuilds a snapshot, the others wait for it instead of all building the same one
+        private final ReentrantLock rebuildLock = new ReentrantLock();
+
+        private Snapshots(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param build builds the topology, serialized, along with the version and number of devices it was built from
+         * @return a snapshot of the topology as of this call or later
+         */
+        private NetworkTopologySnapshot get(Supplier<Build> build) {
+            long wanted = index.getVersion();
+            NetworkTopologySnapshot snapshot = latest.get();
+
+            if (nonNull(snapshot) && snapshot.getVersion() >= wanted) {
+                return snapshot;
+            }
+
+            rebuildLock.lock();
+
+            try {
+                // a snapshot built while this thread waited is recent enough, even if the topology changed again since
+                snapshot = latest.get();
+
+                if (nonNull(snapshot) && snapshot.getVersion() >= wanted) {
+                    return snapshot;
+                }
+
+                TopologyBuildEvent event = new TopologyBuildEvent();
+                event.begin();
+                Build built = build.get();
+                long version = built.version;
+                byte[] json = built.json;
+
+                // labelled with the version it was built from, never retried, so a steady stream of changes can't starve it
+                snapshot = new NetworkTopologySnapshot(version, String.format("\"%s-%s-%d\"", name, epoch, version), json);
+                latest.set(snapshot);
+
+                if (event.shouldCommit()) {
+                    event.snapshot = name;
+                    event.version = version;
+                    event.nodes = built.nodes;
+                    event.bytes = json.length;
+                    event.commit();
+                }
+
+                return snapshot;
+            } finally {
+                rebuildLock.unlock();
+            }
+        }
+    }
+
+    private static final class Build {
+        private final long version;
+
+        private final int nodes;
+
+        private final byte[] json;
+
+        private Build(long version, int nodes, byte[] json) {
+            this.version = version;
+            this.nodes = nodes;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.exceptions.InvalidTopologySnapshotException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Topology snapshot file, from which the topology index is warmed on startup before the database has been read.
+ * Disabled when no file is configured. Snapshots are tied to the database they were read from, and a snapshot of
+ * another database is ignored, so that a snapshot left behind by a database that has since been replaced or moved
+ * isn't served until it's verified
+ */
+@Component
+public class NetworkTopologySnapshotFile {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkTopologySnapshotFile.class);
+
+    private final Path path;
+
+    private final String database;
+
+    public NetworkTopologySnapshotFile(@Value("${topology-snapshot.file:}") String file,
+                                       @Value("${spring.datasource.url:}") String database) {
+        this.path = file.isBlank() ? null : Path.of(file);
+        this.database = database;
+    }
+
+    /**
+     * @return whether a snapshot file is configured
+     */
+    public boolean isEnabled() {
+        return nonNull(path);
+    }
+
+    /**
+     * Memory-maps the snapshot file and decodes the topology from it, so it's paged in straight from the page cache
+     * instead of being copied through a stream
+     *
+     * @return every device of the topology, each after its uplink, or nothing if there is no usable snapshot file of
+     * the database
+     */
+    public Optional<List<NetworkDeviceDTO>> read() {
+        if (!isEnabled() || !Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return Optional.of(NetworkTopologySnapshotFormat.decode(snapshot, database));
+        } catch (InvalidTopologySnapshotException e) {
+            LOGGER.warn("Ignoring topology snapshot {}: {}", path, e.getMessage());
+            return Optional.empty();
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable topology snapshot {}", path, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces the snapshot file. The snapshot is written to a temporary file next to it first, and moved over it once
+     * on disk, so that a crash midway never leaves a partially written snapshot behind
+     *
+     * @param devices every device of the topology read from the database, each after its uplink
+     * @throws IOException snapshot couldn't be written
+     */
+    public void write(List<NetworkDeviceDTO> devices) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+
+        byte[] snapshot = NetworkTopologySnapshotFormat.encode(database, devices);
+
+        Path absolutePath = path.toAbsolutePath();
+        Files.createDirectories(absolutePath.getParent());
+        Path temporaryPath = absolutePath.resolveSibling(absolutePath.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporaryPath, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
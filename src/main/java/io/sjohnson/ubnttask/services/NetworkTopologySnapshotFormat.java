@@ -0,0 +1,180 @@
+package io.sjohnson.ubnttask.services;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceType;
+import io.sjohnson.ubnttask.exceptions.InvalidTopologySnapshotException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Compact binary format of the whole topology, for warming the topology index on startup and for backups.
+ * <p>
+ * Big-endian, laid out as: magic, format version, the database the topology was read from, device count, friendly name
+ * count, the distinct friendly names, each as a length-prefixed UTF-8 string like the database, then one fixed-size
+ * record per device, and finally a CRC32 of everything before it. A device record holds the 6 bytes of its MAC address, the record index of its uplink or -1 for a root device,
+ * the ordinal of its type, and the index of its friendly name or -1 if it has none. Devices come after their uplinks,
+ * so uplinks are always known by the time a device refers to them
+ */
+final class NetworkTopologySnapshotFormat {
+    private static final int MAGIC = 0x4E54_5331; // "NTS1"
+
+    private static final short VERSION = 2;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + Short.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private static final int RECORD_SIZE = 6 + Integer.BYTES + Byte.BYTES + Integer.BYTES;
+
+    private static final NetworkDeviceType[] TYPES = NetworkDeviceType.values();
+
+    private NetworkTopologySnapshotFormat() {
+    }
+
+    /**
+     * @param database identifies the database the topology was read from, or is empty if it isn't tied to one
+     * @param devices  every device of the topology, each after its uplink
+     * @return the topology in the snapshot format
+     */
+    static byte[] encode(String database, List<NetworkDeviceDTO> devices) {
+        byte[] databaseBytes = database.getBytes(StandardCharsets.UTF_8);
+        Map<String, Integer> nameIndexes = new HashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        int namesSize = 0;
+
+        for (NetworkDeviceDTO device : devices) {
+            String name = device.getFriendlyName();
+
+            if (nonNull(name) && !nameIndexes.containsKey(name)) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                nameIndexes.put(name, names.size());
+                names.add(bytes);
+                namesSize += Short.BYTES + bytes.length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + databaseBytes.length + namesSize + devices.size() * RECORD_SIZE + Integer.BYTES);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) databaseBytes.length).put(databaseBytes);
+        buffer.putInt(devices.size()).putInt(names.size());
+        names.forEach((bytes) -> buffer.putShort((short) bytes.length).put(bytes));
+
+        Map<MacAddress, Integer> recordIndexes = new HashMap<>(devices.size() * 4 / 3 + 1);
+
+        for (NetworkDeviceDTO device : devices) {
+            MacAddress macAddress = MacAddress.parse(device.getMacAddress());
+            long value = macAddress.toLong();
+            buffer.putShort((short) (value >>> Integer.SIZE)).putInt((int) value);
+
+            Integer uplinkIndex = nonNull(device.getUplink()) ? recordIndexes.get(MacAddress.parse(device.getUplink())) : Integer.valueOf(-1);
+
+            if (!nonNull(uplinkIndex)) {
+                throw new IllegalArgumentException(String.format("Device %s comes before its uplink %s", device.getMacAddress(), device.getUplink()));
+            }
+
+            buffer.putInt(uplinkIndex);
+            buffer.put((byte) NetworkDeviceType.valueOf(device.getType()).ordinal());
+            buffer.putInt(nonNull(device.getFriendlyName()) ? nameIndexes.get(device.getFriendlyName()) : -1);
+            recordIndexes.put(macAddress, recordIndexes.size());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        return buffer.array();
+    }
+
+    /**
+     * @param snapshot topology in the snapshot format, read from any database. Read from its position to its limit
+     * @return every device of the topology, each after its uplink
+     * @throws InvalidTopologySnapshotException snapshot is truncated, corrupted or in another format
+     */
+    static List<NetworkDeviceDTO> decode(ByteBuffer snapshot) throws InvalidTopologySnapshotException {
+        return decode(snapshot, null);
+    }
+
+    /**
+     * @param snapshot topology in the snapshot format, such as a memory-mapped snapshot file. Read from its position
+     *                 to its limit
+     * @param database database the topology must have been read from, or null for any
+     * @return every device of the topology, each after its uplink
+     * @throws InvalidTopologySnapshotException snapshot is truncated, corrupted, in another format or of another database
+     */
+    static List<NetworkDeviceDTO> decode(ByteBuffer snapshot, String database) throws InvalidTopologySnapshotException {
+        ByteBuffer buffer = snapshot.slice();
+
+        if (buffer.remaining() < HEADER_SIZE + Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new InvalidTopologySnapshotException("Invalid topology snapshot - not a topology snapshot");
+        }
+
+        short version = buffer.getShort();
+
+        if (version != VERSION) {
+            throw new InvalidTopologySnapshotException(String.format("Invalid topology snapshot - unsupported format version %d", version));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(buffer.limit() - Integer.BYTES));
+
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - Integer.BYTES)) {
+            throw new InvalidTopologySnapshotException("Invalid topology snapshot - checksum mismatch");
+        }
+
+        try {
+            String snapshotDatabase = getString(buffer);
+
+            if (nonNull(database) && !database.equals(snapshotDatabase)) {
+                throw new InvalidTopologySnapshotException(String.format("Invalid topology snapshot - read from database %s, not %s", snapshotDatabase, database));
+            }
+
+            int deviceCount = buffer.getInt();
+            String[] names = new String[buffer.getInt()];
+
+            for (int i = 0; i < names.length; i++) {
+                names[i] = getString(buffer);
+            }
+
+            if (deviceCount < 0 || (long) deviceCount * RECORD_SIZE != buffer.remaining() - Integer.BYTES) {
+                throw new InvalidTopologySnapshotException("Invalid topology snapshot - device count doesn't match its size");
+            }
+
+            List<NetworkDeviceDTO> devices = new ArrayList<>(deviceCount);
+
+            for (int i = 0; i < deviceCount; i++) {
+                long value = (Short.toUnsignedLong(buffer.getShort()) << Integer.SIZE) | Integer.toUnsignedLong(buffer.getInt());
+                int uplinkIndex = buffer.getInt();
+                int type = buffer.get();
+                int nameIndex = buffer.getInt();
+
+                if (uplinkIndex < -1 || uplinkIndex >= i || type < 0 || type >= TYPES.length || nameIndex < -1 || nameIndex >= names.length) {
+                    throw new InvalidTopologySnapshotException(String.format("Invalid topology snapshot - device record %d is malformed", i));
+                }
+
+                devices.add(new NetworkDeviceDTO(
+                        MacAddress.of(value).toString(),
+                        uplinkIndex >= 0 ? devices.get(uplinkIndex).getMacAddress() : null,
+                        TYPES[type].toString(),
+                        nameIndex >= 0 ? names[nameIndex] : null));
+            }
+
+            return devices;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new InvalidTopologySnapshotException("Invalid topology snapshot - truncated");
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
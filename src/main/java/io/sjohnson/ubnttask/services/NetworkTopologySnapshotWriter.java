@@ -0,0 +1,99 @@
+package io.sjohnson.ubnttask.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the topology index to the topology snapshot file in the background whenever the topology changed since the
+ * last snapshot, checking every interval, and one last time on shutdown
+ */
+@Component
+public class NetworkTopologySnapshotWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkTopologySnapshotWriter.class);
+
+    private final NetworkTopologyIndex index;
+
+    private final NetworkTopologySnapshotFile snapshotFile;
+
+    private final long intervalNanos;
+
+    private final Thread writerThread = new Thread(this::run, "topology-snapshot-writer");
+
+    private volatile boolean running = true;
+
+    // topology version of the last snapshot written, so an unchanged topology isn't written again
+    private long writtenVersion = -1;
+
+    public NetworkTopologySnapshotWriter(NetworkTopologyIndex index, NetworkTopologySnapshotFile snapshotFile,
+                                         @Value("${topology-snapshot.interval:5m}") Duration interval) {
+        this.index = index;
+        this.snapshotFile = snapshotFile;
+        this.intervalNanos = interval.toNanos();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!snapshotFile.isEnabled()) {
+            return;
+        }
+
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the periodic snapshots and writes a last one once the writer thread is done, so that changes applied while
+     * it was writing aren't left out
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!snapshotFile.isEnabled()) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+
+        if (writerThread.isAlive()) {
+            LOGGER.warn("Topology snapshot writer didn't stop within 30s, writing the last snapshot after its current one");
+        }
+
+        writeIfChanged();
+    }
+
+    private void run() {
+        // the first snapshot waits for the index to be verified, so that an out of date snapshot isn't written back
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            writeIfChanged();
+        }
+    }
+
+    // synchronized, as the last snapshot is written by the thread stopping the writer
+    private synchronized void writeIfChanged() {
+        try {
+            index.awaitVerified();
+            long version = index.getVersion();
+
+            if (version == writtenVersion) {
+                return;
+            }
+
+            // a change applied while the snapshot is encoded gets written with the next one
+            snapshotFile.write(index.getDevicesTopDown());
+            writtenVersion = version;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to write topology snapshot", e);
+        }
+    }
+}
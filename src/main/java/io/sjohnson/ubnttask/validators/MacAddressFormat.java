@@ -0,0 +1,26 @@
+package io.sjohnson.ubnttask.validators;
+
+import jakarta.validation.Constraint;
+import jakarta.validation.Payload;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static io.sjohnson.ubnttask.entities.NetworkDevice.MAC_INVALID_MESSAGE;
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The annotated string must be null, or a MAC address formatted as 12:34:56:78:90:ab. Accepts the same values as
+ * NetworkDevice.MAC_ADDRESS_REGEXP, without running a regular expression
+ */
+@Target({METHOD, FIELD, ANNOTATION_TYPE, CONSTRUCTOR, PARAMETER, TYPE_USE})
+@Retention(RUNTIME)
+@Documented
+@Constraint(validatedBy = MacAddressFormatValidator.class)
+public @interface MacAddressFormat {
+    String message() default MAC_INVALID_MESSAGE;
+    Class<?>[] groups() default {};
+    Class<? extends Payload>[] payload() default {};
+}
@@ -0,0 +1,16 @@
+package io.sjohnson.ubnttask.validators;
+
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.ConstraintValidatorContext;
+
+public class MacAddressFormatValidator implements ConstraintValidator<MacAddressFormat, CharSequence> {
+    @Override
+    public boolean isValid(CharSequence value, ConstraintValidatorContext context) {
+        if (value == null) {
+            return true;
+        }
+
+        return MacAddress.isValid(value);
+    }
+}
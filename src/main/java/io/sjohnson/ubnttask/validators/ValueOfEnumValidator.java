@@ -3,18 +3,18 @@ package io.sjohnson.ubnttask.validators;
 import jakarta.validation.ConstraintValidator;
 import jakarta.validation.ConstraintValidatorContext;
 
-import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ValueOfEnumValidator implements ConstraintValidator<ValueOfEnum, CharSequence> {
-    private List<String> acceptedValues;
+    private Set<String> acceptedValues;
 
     @Override
     public void initialize(ValueOfEnum annotation) {
         acceptedValues = Stream.of(annotation.enumClass().getEnumConstants())
                 .map(Enum::name)
-                .collect(Collectors.toList());
+                .collect(Collectors.toUnmodifiableSet());
     }
 
     @Override
@@ -25,4 +25,4 @@ public class ValueOfEnumValidator implements ConstraintValidator<ValueOfEnum, Ch
 
         return acceptedValues.contains(value.toString());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package io.sjohnson.ubnttask;
+
+import io.sjohnson.ubnttask.audit.AuditLog;
+import io.sjohnson.ubnttask.services.NetworkDeviceService;
+import io.sjohnson.ubnttask.services.NetworkTopologyIndex;
+import io.sjohnson.ubnttask.services.NetworkTopologySnapshotWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.autoconfigure.web.servlet.error.BasicErrorController;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// a database and files of its own, as the context runs next to the one of the integration tests
+@SpringBootTest(properties = {
+        "spring.main.lazy-initialization=true",
+        "spring.datasource.url=jdbc:h2:mem:lazy-initialization",
+        "audit-log.file=build/audit-lazy-initialization-test.log",
+        "topology-snapshot.file=build/topology-lazy-initialization-test.snapshot"})
+class LazyInitializationTests {
+    @Autowired
+    private ConfigurableListableBeanFactory beanFactory;
+
+    @Test
+    void lazyInitialization_ExpectApplicationBeansCreatedOnStartup() {
+        // the service starts the group committers, and the writers their threads, once created
+        List<Class<?>> eagerTypes = List.of(NetworkDeviceService.class, NetworkTopologyIndex.class,
+                NetworkTopologySnapshotWriter.class, AuditLog.class);
+
+        for (Class<?> type : eagerTypes) {
+            String[] names = beanFactory.getBeanNamesForType(type, false, false);
+
+            assertThat(names).as("beans of type %s", type.getSimpleName()).hasSize(1);
+            assertThat(beanFactory.containsSingleton(names[0])).as("%s created", type.getSimpleName()).isTrue();
+        }
+    }
+
+    @Test
+    void lazyInitialization_ExpectErrorControllerCreatedOnFirstError() {
+        String[] names = beanFactory.getBeanNamesForType(BasicErrorController.class, false, false);
+
+        assertThat(names).hasSize(1);
+        assertThat(beanFactory.containsSingleton(names[0])).isFalse();
+    }
+}
@@ -1,22 +1,75 @@
 package io.sjohnson.ubnttask;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.sjohnson.ubnttask.constructs.MacAddress;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceBatchErrorDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceBatchResultDTO;
 import io.sjohnson.ubnttask.constructs.NetworkDeviceDTO;
+import io.sjohnson.ubnttask.constructs.NetworkDeviceTopologyDTO;
 import io.sjohnson.ubnttask.entities.NetworkDevice;
 import io.sjohnson.ubnttask.exceptions.DeviceCausesNetworkLoopException;
 import io.sjohnson.ubnttask.exceptions.InvalidNetworkDeviceException;
+import io.sjohnson.ubnttask.metrics.NetworkDeviceMetrics;
+import io.sjohnson.ubnttask.repositories.MacAddressColumnMigration;
 import io.sjohnson.ubnttask.repositories.NetworkDeviceRepository;
+import io.sjohnson.ubnttask.repositories.NetworkDeviceSubtreeRow;
 import io.sjohnson.ubnttask.services.NetworkDeviceDTOMapper;
 import io.sjohnson.ubnttask.services.NetworkDeviceService;
+import io.sjohnson.ubnttask.services.NetworkTopologyIndex;
+import io.sjohnson.ubnttask.services.NetworkTopologySnapshotFile;
+import io.sjohnson.ubnttask.services.NetworkTopologySnapshotWriter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.sql.DataSource;
 
 import static io.sjohnson.ubnttask.constructs.NetworkDeviceType.*;
+import static io.sjohnson.ubnttask.entities.NetworkDevice.MAC_INVALID_MESSAGE;
+import static io.sjohnson.ubnttask.entities.NetworkDevice.MAC_NOT_PROVIDED_MESSAGE;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
@@ -25,7 +78,13 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @SuppressWarnings("ConstantValue")
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, classes = UbntTaskApplication.class)
 @AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
 public class NetworkDeviceIntegrationTests {
+    // uppercase, non-hex characters, wrong separators, and too short or too long
+    private static final List<String> MALFORMED_MAC_ADDRESSES = List.of(
+            "FF:00:00:00:00:0A", "ff:00:00:00:00:0g", "ff:00:00:00:00:0 ", "ff-00-00-00-00-00", "ff:00:00:00:00.00", "ff0000000000",
+            "ff:00:00:00:00", "ff:00:00:00:00:0", "ff:00:00:00:00:00:00", "ff:00:00:00:00:000");
+
     @Autowired
     private MockMvc mvc;
 
@@ -38,6 +97,36 @@ public class NetworkDeviceIntegrationTests {
     @Autowired
     private NetworkDeviceDTOMapper mapper;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private NetworkTopologyIndex index;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @SpyBean
+    private NetworkDeviceMetrics metrics;
+
+    @Value("${audit-log.file}")
+    private String auditLogFile;
+
+    @Value("${network-device.group-commit.committers}")
+    private int groupCommitters;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private NetworkTopologySnapshotFile snapshotFile;
+
+    @Value("${topology-snapshot.file}")
+    private String snapshotFilePath;
+
+    @Value("${spring.datasource.url}")
+    private String databaseUrl;
+
     @Test
     public void testGetNetworkDevice_ExpectSuccess() throws Exception {
         String macAddress = "ff:00:00:00:00:00";
@@ -91,6 +180,33 @@ public class NetworkDeviceIntegrationTests {
         assertThat(orphanedDevice.getUplink()).isEqualTo(null);
     }
 
+    @Test
+    public void testDeleteNetworkDevice_Cascade_ExpectSuccess() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:10", null, GATEWAY.toString(), "to be deleted");
+        createAndSaveNetworkDevice("ee:00:00:00:00:11", "ee:00:00:00:00:10", SWITCH.toString(), "to be deleted");
+        createAndSaveNetworkDevice("ee:00:00:00:00:12", "ee:00:00:00:00:11", SWITCH.toString(), "to be deleted");
+        createAndSaveNetworkDevice("ee:00:00:00:00:13", "ee:00:00:00:00:12", ACCESS_POINT.toString(), "to be deleted");
+        createAndSaveNetworkDevice("ee:00:00:00:00:14", "ee:00:00:00:00:11", ACCESS_POINT.toString(), "to be deleted");
+        createAndSaveNetworkDevice("ee:00:00:00:00:15", null, GATEWAY.toString(), "to be kept");
+
+        mvc.perform(delete("/device/ee:00:00:00:00:11?cascade=true")).andExpect(status().isOk());
+
+        assertNetworkDeviceExists("ee:00:00:00:00:10", null, GATEWAY.toString(), "to be deleted");
+        assertNetworkDeviceExists("ee:00:00:00:00:15", null, GATEWAY.toString(), "to be kept");
+        assertNetworkDeviceDoesntExist("ee:00:00:00:00:11");
+        assertNetworkDeviceDoesntExist("ee:00:00:00:00:12");
+        assertNetworkDeviceDoesntExist("ee:00:00:00:00:13");
+        assertNetworkDeviceDoesntExist("ee:00:00:00:00:14");
+
+        mvc.perform(get("/device/ee:00:00:00:00:10/topology"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("downlinks").isEmpty());
+        mvc.perform(get("/device/ee:00:00:00:00:13/topology")).andExpect(status().is(404));
+
+        service.delete("ee:00:00:00:00:10");
+        service.delete("ee:00:00:00:00:15");
+    }
+
     @Test
     public void testDeleteNetworkDevice_MalformedMac_ExpectFailure() throws Exception {
         mvc.perform(delete("/device/an:00:00:00:00:00")).andExpect(status().is(400));
@@ -161,6 +277,42 @@ public class NetworkDeviceIntegrationTests {
         ;
     }
 
+    @Test
+    public void testNetworkDevice_MalformedMacInPath_ExpectMessage() throws Exception {
+        for (String macAddress : MALFORMED_MAC_ADDRESSES) {
+            mvc.perform(get("/device/" + macAddress))
+                    .andExpect(status().is(400))
+                    .andExpect(jsonPath("$", contains(MAC_INVALID_MESSAGE)));
+
+            mvc.perform(get("/device/ff:00:00:00:00:00/path/" + macAddress))
+                    .andExpect(status().is(400))
+                    .andExpect(jsonPath("$", contains(MAC_INVALID_MESSAGE)));
+        }
+    }
+
+    @Test
+    public void testCreateNetworkDevice_MalformedMacInBody_ExpectMessage() throws Exception {
+        for (String macAddress : MALFORMED_MAC_ADDRESSES) {
+            mvc.perform(put("/device")
+                            .content(asJsonString(new NetworkDeviceDTO(macAddress, null, GATEWAY.toString(), "test")))
+                            .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().is(400))
+                    .andExpect(jsonPath("$", contains(MAC_INVALID_MESSAGE)));
+
+            mvc.perform(put("/device")
+                            .content(asJsonString(new NetworkDeviceDTO("ff:00:00:00:00:00", macAddress, SWITCH.toString(), "test")))
+                            .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().is(400))
+                    .andExpect(jsonPath("$", contains(MAC_INVALID_MESSAGE)));
+        }
+
+        mvc.perform(put("/device")
+                        .content(asJsonString(new NetworkDeviceDTO(null, null, GATEWAY.toString(), "test")))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().is(400))
+                .andExpect(jsonPath("$", contains(MAC_NOT_PROVIDED_MESSAGE)));
+    }
+
     @Test
     public void testCreateNetworkDevice_WithNonExistentUplink_ExpectFailure() throws Exception {
         NetworkDeviceDTO dto = new NetworkDeviceDTO("f0:00:00:00:00:00", "f0:00:aa:00:ff:00", GATEWAY.toString(), "test");
@@ -203,6 +355,7 @@ public class NetworkDeviceIntegrationTests {
                         .contentType(MediaType.APPLICATION_JSON)
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().is(400))
+                .andExpect(jsonPath("[0]").value("Invalid uplink device: ff:00:00:00:00:02 - causes a network loop: ff:00:00:00:00:00 -> ff:00:00:00:00:02 -> ff:00:00:00:00:01 -> ff:00:00:00:00:00"))
         ;
     }
 
@@ -230,6 +383,75 @@ public class NetworkDeviceIntegrationTests {
         assertNetworkDeviceExists(macAddress, uplink, type, friendlyName);
     }
 
+    @Test
+    public void testCreateNetworkDevices_Batch_ExpectPartialSuccess() throws Exception {
+        List<NetworkDeviceDTO> batch = List.of(
+                new NetworkDeviceDTO("ee:00:00:00:00:02", "ee:00:00:00:00:01", ACCESS_POINT.toString(), "AP 6 Lite"),
+                new NetworkDeviceDTO("ee:00:00:00:00:01", "ee:00:00:00:00:00", SWITCH.toString(), "Switch 48 Enterprise"),
+                new NetworkDeviceDTO("ee:00:00:00:00:00", null, GATEWAY.toString(), "UDM SE"),
+                new NetworkDeviceDTO("ee:00:00:00:00:03", "ee:00:00:00:00:09", ACCESS_POINT.toString(), "AP 6 Lite"),
+                new NetworkDeviceDTO("ee:00:00:00:00:04", "ee:00:00:00:00:05", SWITCH.toString(), "Switch 48 Enterprise"),
+                new NetworkDeviceDTO("ee:00:00:00:00:05", "ee:00:00:00:00:04", SWITCH.toString(), "Switch 48 Enterprise"),
+                new NetworkDeviceDTO("ee:00:00:00:00:06", "ee:00:00:00:00:00", "CAMERA", "test"),
+                new NetworkDeviceDTO("ee:00:00:00:00:0x", "ee:00:00:00:00:00", SWITCH.toString(), "test"));
+
+        mvc.perform(put("/device/batch")
+                        .content(asJsonString(batch))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("saved[0].macAddress").value("ee:00:00:00:00:00"))
+                .andExpect(jsonPath("saved[1].macAddress").value("ee:00:00:00:00:01"))
+                .andExpect(jsonPath("saved[2].macAddress").value("ee:00:00:00:00:02"))
+                .andExpect(jsonPath("saved[3]").doesNotExist())
+                .andExpect(jsonPath("errors[0].index").value(3))
+                .andExpect(jsonPath("errors[0].message").value("Invalid uplink: ee:00:00:00:00:09 - device not found"))
+                .andExpect(jsonPath("errors[1].index").value(4))
+                .andExpect(jsonPath("errors[1].message").value("Invalid uplink device: ee:00:00:00:00:05 - causes a network loop: ee:00:00:00:00:04 -> ee:00:00:00:00:05 -> ee:00:00:00:00:04"))
+                .andExpect(jsonPath("errors[2].index").value(5))
+                .andExpect(jsonPath("errors[3].index").value(6))
+                .andExpect(jsonPath("errors[3].message").value(NOT_IN_ENUM_ERROR))
+                .andExpect(jsonPath("errors[4].index").value(7))
+                .andExpect(jsonPath("errors[4].message").value(MAC_INVALID_MESSAGE))
+                .andExpect(jsonPath("errors[5]").doesNotExist());
+
+        assertNetworkDeviceExists("ee:00:00:00:00:02", "ee:00:00:00:00:01", ACCESS_POINT.toString(), "AP 6 Lite");
+        assertNetworkDeviceDoesntExist("ee:00:00:00:00:04");
+
+        mvc.perform(get("/device/ee:00:00:00:00:00/topology"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("downlinks[0].downlinks[0].macAddress").value("ee:00:00:00:00:02"));
+
+        service.delete("ee:00:00:00:00:00");
+        service.delete("ee:00:00:00:00:01");
+        service.delete("ee:00:00:00:00:02");
+    }
+
+    @Test
+    public void testUpdateNetworkDevices_Batch_NetworkLoopWithStoredDevices_ExpectFailure() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:00", null, GATEWAY.toString(), "UDM SE");
+        createAndSaveNetworkDevice("ee:00:00:00:00:01", "ee:00:00:00:00:00", SWITCH.toString(), "Switch 48 Enterprise");
+
+        List<NetworkDeviceDTO> batch = List.of(
+                new NetworkDeviceDTO("ee:00:00:00:00:00", "ee:00:00:00:00:02", GATEWAY.toString(), "UDM SE"),
+                new NetworkDeviceDTO("ee:00:00:00:00:02", "ee:00:00:00:00:01", SWITCH.toString(), "Switch 48 Enterprise"));
+
+        mvc.perform(put("/device/batch")
+                        .content(asJsonString(batch))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("saved").isEmpty())
+                .andExpect(jsonPath("errors[0].message").value("Invalid uplink device: ee:00:00:00:00:02 - causes a network loop: ee:00:00:00:00:00 -> ee:00:00:00:00:02 -> ee:00:00:00:00:01 -> ee:00:00:00:00:00"))
+                .andExpect(jsonPath("errors[1].message").value("Invalid uplink device: ee:00:00:00:00:01 - causes a network loop: ee:00:00:00:00:02 -> ee:00:00:00:00:01 -> ee:00:00:00:00:00 -> ee:00:00:00:00:02"));
+
+        assertNetworkDeviceExists("ee:00:00:00:00:00", null, GATEWAY.toString(), "UDM SE");
+        assertNetworkDeviceDoesntExist("ee:00:00:00:00:02");
+
+        service.delete("ee:00:00:00:00:00");
+        service.delete("ee:00:00:00:00:01");
+    }
+
     @Test
     public void getAllNetworkDevices_ExpectSuccess() throws Exception {
         createTopology();
@@ -241,6 +463,56 @@ public class NetworkDeviceIntegrationTests {
                 .andExpect(content().json(expectedJson));
     }
 
+    @Test
+    public void getNetworkDevicePages_ExpectSuccess() throws Exception {
+        createTopology();
+
+        List<NetworkDeviceDTO> expected = service.getAll();
+        List<String> pagedMacAddresses = new ArrayList<>();
+        String cursor = null;
+
+        do {
+            MvcResult result = mvc.perform(cursor == null ? get("/device/page?limit=4") : get("/device/page?limit=4&cursor=" + cursor))
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            JsonNode page = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+            page.get("devices").forEach((device) -> pagedMacAddresses.add(device.get("macAddress").asText()));
+            cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        } while (cursor != null);
+
+        assertThat(pagedMacAddresses).containsExactlyElementsOf(expected.stream().map(NetworkDeviceDTO::getMacAddress).toList());
+        assertThat(expected.get(0).getType()).isEqualTo(GATEWAY.toString());
+        assertThat(expected.get(expected.size() - 1).getType()).isEqualTo(ACCESS_POINT.toString());
+    }
+
+    @Test
+    public void getNetworkDevicePage_InvalidCursor_ExpectFailure() throws Exception {
+        mvc.perform(get("/device/page?cursor=bm90IGEgY3Vyc29y")).andExpect(status().is(400));
+        mvc.perform(get("/device/page?limit=0")).andExpect(status().is(400));
+
+        // cursors only hold MAC addresses the API itself accepts
+        for (String macAddress : List.of("FF:00:00:00:00:00", "\u0661\u0662:00:00:00:00:00")) {
+            String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(("SWITCH/" + macAddress).getBytes(StandardCharsets.UTF_8));
+            mvc.perform(get("/device/page?cursor=" + cursor)).andExpect(status().is(400));
+        }
+    }
+
+    @Test
+    public void exportNetworkDevices_ExpectSuccess() throws Exception {
+        createTopology();
+
+        String expectedJson = asJsonString(service.getAll());
+
+        MvcResult result = mvc.perform(get("/device/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().json(expectedJson, true));
+    }
+
     @Test
     public void getTopology_ExpectSuccess() throws Exception {
         createTopology();
@@ -282,6 +554,116 @@ public class NetworkDeviceIntegrationTests {
                 .andExpect(jsonPath("[\"ff:00:00:00:00:09\"]").isMap());
     }
 
+    @Test
+    public void getTopology_NotModified_ExpectSuccess() throws Exception {
+        createTopology();
+
+        for (String path : List.of("/device/topology", "/device/topology/simple")) {
+            String etag = mvc.perform(get(path))
+                    .andExpect(status().isOk())
+                    .andExpect(header().exists("ETag"))
+                    .andReturn().getResponse().getHeader("ETag");
+
+            mvc.perform(get(path).header("If-None-Match", etag))
+                    .andExpect(status().isNotModified())
+                    .andExpect(content().string(""));
+
+            createAndSaveNetworkDevice("ee:00:00:00:00:08", null, GATEWAY.toString(), "changes the topology");
+
+            mvc.perform(get(path).header("If-None-Match", etag))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", not(etag)))
+                    .andExpect(content().string(containsString("ee:00:00:00:00:08")));
+
+            service.delete("ee:00:00:00:00:08");
+        }
+    }
+
+    @Test
+    public void getSimpleTopology_LargeTopology_ExpectSuccess() throws Exception {
+        MacAddress chainRoot = MacAddress.parse("ee:00:00:10:00:00");
+        MacAddress starRoot = MacAddress.parse("ee:00:00:20:00:00");
+        List<NetworkDeviceDTO> devices = new ArrayList<>();
+        StringBuilder chainJson = new StringBuilder(String.format("\"%s\":{", chainRoot));
+        StringBuilder starJson = new StringBuilder(String.format("\"%s\":{", starRoot));
+
+        devices.add(new NetworkDeviceDTO(chainRoot.toString(), null, GATEWAY.toString(), "daisy chain"));
+        devices.add(new NetworkDeviceDTO(starRoot.toString(), null, GATEWAY.toString(), "star"));
+
+        // deep enough to overflow the stack when built recursively, large enough to be written in parallel
+        for (int i = 1; i <= 3000; i++) {
+            MacAddress device = MacAddress.of(chainRoot.toLong() + i);
+            devices.add(new NetworkDeviceDTO(device.toString(), MacAddress.of(device.toLong() - 1).toString(), SWITCH.toString(), "daisy chain"));
+            chainJson.append(String.format("\"%s\":{", device));
+        }
+
+        for (int i = 1; i <= 8000; i++) {
+            MacAddress device = MacAddress.of(starRoot.toLong() + i);
+            devices.add(new NetworkDeviceDTO(device.toString(), starRoot.toString(), ACCESS_POINT.toString(), "star"));
+            starJson.append(String.format(i == 1 ? "\"%s\":{}" : ",\"%s\":{}", device));
+        }
+
+        chainJson.append("}".repeat(3001));
+        starJson.append("}");
+
+        assertThat(service.saveAll(devices).getErrors()).isEmpty();
+
+        mvc.perform(get("/device/topology/simple"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(chainJson.toString())))
+                .andExpect(content().string(containsString(starJson.toString())));
+
+        service.delete(chainRoot.toString(), true);
+        service.delete(starRoot.toString(), true);
+    }
+
+    @Test
+    public void testSave_DeeperThanMaxDepth_ExpectRejected() throws Exception {
+        MacAddress chainRoot = MacAddress.parse("ee:00:00:30:00:00");
+        MacAddress deepest = MacAddress.of(chainRoot.toLong() + NetworkDevice.MAX_DEPTH - 1);
+        MacAddress otherRoot = MacAddress.parse("ee:00:00:40:00:00");
+        MacAddress otherSwitch = MacAddress.of(otherRoot.toLong() + 1);
+        List<NetworkDeviceDTO> devices = new ArrayList<>();
+
+        devices.add(new NetworkDeviceDTO(chainRoot.toString(), null, GATEWAY.toString(), "daisy chain"));
+
+        for (int i = 1; i < NetworkDevice.MAX_DEPTH; i++) {
+            MacAddress device = MacAddress.of(chainRoot.toLong() + i);
+            devices.add(new NetworkDeviceDTO(device.toString(), MacAddress.of(device.toLong() - 1).toString(), SWITCH.toString(), "daisy chain"));
+        }
+
+        devices.add(new NetworkDeviceDTO(otherRoot.toString(), null, GATEWAY.toString(), "other gateway"));
+        devices.add(new NetworkDeviceDTO(otherSwitch.toString(), otherRoot.toString(), SWITCH.toString(), "other switch"));
+
+        try {
+            assertThat(service.saveAll(devices).getErrors()).isEmpty();
+            String tooDeep = String.format("Invalid uplink: %s - devices would sit %d levels deep, more than the maximum of %d", deepest, NetworkDevice.MAX_DEPTH + 1, NetworkDevice.MAX_DEPTH);
+
+            assertThatThrownBy(() -> service.save(new NetworkDeviceDTO("ee:00:00:40:00:02", deepest.toString(), ACCESS_POINT.toString(), "access point")))
+                    .isInstanceOf(InvalidNetworkDeviceException.class)
+                    .hasMessage(tooDeep);
+
+            // the switch below it would be one level too deep as well
+            assertThatThrownBy(() -> service.save(new NetworkDeviceDTO(otherRoot.toString(), deepest.toString(), SWITCH.toString(), "other gateway")))
+                    .isInstanceOf(InvalidNetworkDeviceException.class)
+                    .hasMessage(String.format("Invalid uplink: %s - devices would sit %d levels deep, more than the maximum of %d", deepest, NetworkDevice.MAX_DEPTH + 2, NetworkDevice.MAX_DEPTH));
+
+            NetworkDeviceBatchResultDTO batch = service.saveAll(List.of(
+                    new NetworkDeviceDTO("ee:00:00:40:00:02", deepest.toString(), ACCESS_POINT.toString(), "access point"),
+                    new NetworkDeviceDTO("ee:00:00:40:00:03", "ee:00:00:40:00:02", ACCESS_POINT.toString(), "access point")));
+            assertThat(batch.getSaved()).isEmpty();
+            assertThat(batch.getErrors()).extracting(NetworkDeviceBatchErrorDTO::getMessage).containsExactly(
+                    tooDeep, "Invalid uplink: ee:00:00:40:00:02 - uplink chain contains a rejected device");
+
+            // as deep as it gets
+            service.save(new NetworkDeviceDTO(otherSwitch.toString(), MacAddress.of(deepest.toLong() - 1).toString(), SWITCH.toString(), "other switch"));
+            assertThat(index.getDepthBelow(chainRoot)).isEqualTo(NetworkDevice.MAX_DEPTH - 1);
+        } finally {
+            service.delete(chainRoot.toString(), true);
+            service.delete(otherRoot.toString(), true);
+        }
+    }
+
     @Test
     public void getTopologyFromDevice_ExpectSuccess() throws Exception {
         createTopology();
@@ -301,6 +683,878 @@ public class NetworkDeviceIntegrationTests {
                 .andExpect(jsonPath("downlinks[0].downlinks[1].downlinks").isEmpty());
     }
 
+    @Test
+    public void getTopologyFromDevice_AfterReparenting_ExpectSuccess() throws Exception {
+        createTopology();
+        createAndSaveNetworkDevice("ff:00:00:00:00:0b", "ff:00:00:00:00:00", SWITCH.toString(), "Switch 48 Enterprise PoE");
+
+        mvc.perform(get("/device/ff:00:00:00:00:0a/topology"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("downlinks").isEmpty());
+
+        mvc.perform(get("/device/ff:00:00:00:00:00/topology"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("downlinks[4].macAddress").value("ff:00:00:00:00:0b"))
+                .andExpect(jsonPath("downlinks[4].uplink").value("ff:00:00:00:00:00"))
+                .andExpect(jsonPath("downlinks[4].downlinks[0].macAddress").value("ff:00:00:00:00:0c"));
+    }
+
+    @Test
+    public void testSaveAndDeleteNetworkDevice_ExpectAuditRecords() throws Exception {
+        Path auditLog = Path.of(auditLogFile);
+        long offset = Files.size(auditLog);
+
+        createAndSaveNetworkDevice("ee:00:00:00:00:07", null, GATEWAY.toString(), "audited");
+        service.delete("ee:00:00:00:00:07");
+
+        String saved = "\"action\":\"DEVICE_SAVED\",\"macAddress\":\"ee:00:00:00:00:07\",\"type\":\"GATEWAY\",\"friendlyName\":\"audited\"}";
+        String deleted = "\"action\":\"DEVICE_DELETED\",\"macAddress\":\"ee:00:00:00:00:07\",\"orphaned\":0}";
+        String records = "";
+
+        // the audit log is written in the background
+        for (long deadline = System.currentTimeMillis() + 5000; !(records.contains(saved) && records.contains(deleted)) && System.currentTimeMillis() < deadline; Thread.sleep(20)) {
+            records = Files.readString(auditLog).substring((int) offset);
+        }
+
+        assertThat(records).contains(saved).contains(deleted);
+    }
+
+    @Test
+    public void getTopologyFromDevice_FromDatabase_ExpectSuccess() throws Exception {
+        createTopology();
+
+        for (String macAddress : List.of("ff:00:00:00:00:00", "ff:00:00:00:00:09", "ff:00:00:00:00:0b", "ff:00:00:00:00:07")) {
+            NetworkDeviceTopologyDTO fromDatabase = mapper.toTopology(repository.findSubtree(MacAddress.parse(macAddress)));
+
+            assertThat(asJsonString(fromDatabase)).isEqualTo(asJsonString(service.getTopologyFromDevice(macAddress)));
+        }
+
+        assertThat(repository.findSubtree(MacAddress.parse("ff:00:00:00:00:00")))
+                .extracting(NetworkDeviceSubtreeRow::getDepth)
+                .containsExactly(0, 1, 1, 1, 1, 2, 3, 4);
+        assertThat(mapper.toTopology(repository.findSubtree(MacAddress.parse("aa:00:aa:00:aa:00")))).isNull();
+
+        // truncated the same way, with the same cursors, as the topology index while it isn't verified yet
+        for (String macAddress : List.of("ff:00:00:00:00:00", "ff:00:00:00:00:09")) {
+            MacAddress device = MacAddress.parse(macAddress);
+
+            for (MacAddress after : Arrays.asList(null, MacAddress.parse("ff:00:00:00:00:01"), MacAddress.parse("ff:00:00:00:00:0a"))) {
+                for (int maxDepth = 0; maxDepth <= 4; maxDepth++) {
+                    for (int maxChildren = 1; maxChildren <= 4; maxChildren++) {
+                        assertThat(asJsonString(mapper.toTopology(repository.findSubtree(device), after, maxDepth, maxChildren)))
+                                .isEqualTo(asJsonString(index.getTopologyFrom(device, after, maxDepth, maxChildren)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getTopologyFromDevice_Limited_ExpectSuccess() throws Exception {
+        createTopology();
+
+        JsonNode firstPage = getJson("/device/ff:00:00:00:00:00/topology?maxDepth=1&maxChildren=2");
+        assertThat(firstPage.get("downlinks")).extracting((downlink) -> downlink.get("macAddress").asText()).containsExactly("ff:00:00:00:00:01", "ff:00:00:00:00:02");
+        assertThat(firstPage.get("downlinks").get(0).get("downlinks")).isEmpty();
+        assertThat(firstPage.get("downlinks").get(1).has("downlinksCursor")).isFalse();
+
+        // rest of the downlinks of the device the tree starts with
+        JsonNode secondPage = getJson("/device/ff:00:00:00:00:00/topology?maxDepth=1&maxChildren=2&cursor=" + firstPage.get("downlinksCursor").asText());
+        assertThat(secondPage.get("downlinks")).extracting((downlink) -> downlink.get("macAddress").asText()).containsExactly("ff:00:00:00:00:03", "ff:00:00:00:00:04");
+        assertThat(secondPage.has("downlinksCursor")).isFalse();
+
+        // drilling down into a device cut off by maxDepth
+        String drillDownCursor = firstPage.get("downlinks").get(0).get("downlinksCursor").asText();
+        JsonNode drillDown = getJson("/device/ff:00:00:00:00:01/topology?maxDepth=1&cursor=" + drillDownCursor);
+        assertThat(drillDown.get("downlinks")).extracting((downlink) -> downlink.get("macAddress").asText()).containsExactly("ff:00:00:00:00:05");
+        assertThat(drillDown.get("downlinks").get(0).has("downlinksCursor")).isTrue();
+
+        mvc.perform(get("/device/ff:00:00:00:00:01/topology?cursor=" + firstPage.get("downlinksCursor").asText())).andExpect(status().is(400));
+        mvc.perform(get("/device/ff:00:00:00:00:00/topology?maxChildren=0")).andExpect(status().is(400));
+
+        mvc.perform(get("/device/topology?maxDepth=0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("[0].downlinks").isEmpty())
+                .andExpect(jsonPath("[0].downlinksCursor").isNotEmpty())
+                .andExpect(jsonPath("[1].downlinksCursor").doesNotExist());
+    }
+
+    @Test
+    public void getMetrics_ExpectSuccess() throws Exception {
+        mvc.perform(put("/device")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(asJsonString(new NetworkDeviceDTO("ee:00:00:00:00:20", null, GATEWAY.toString(), "metrics"))))
+                .andExpect(status().isOk());
+        mvc.perform(put("/device")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(asJsonString(new NetworkDeviceDTO("ee:00:00:00:00:21", "ee:00:00:00:00:20", SWITCH.toString(), "metrics"))))
+                .andExpect(status().isOk());
+        mvc.perform(get("/device/ee:00:00:00:00:21")).andExpect(status().isOk());
+        mvc.perform(delete("/device/ee:00:00:00:00:20?cascade=true")).andExpect(status().isOk());
+
+        mvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("http_server_requests_seconds_bucket{error=\"none\",exception=\"none\",method=\"GET\",outcome=\"SUCCESS\",status=\"200\",uri=\"/device/{macAddress}\"")))
+                .andExpect(content().string(containsString("network_device_service_seconds_bucket{method=\"save\"")))
+                .andExpect(content().string(containsString("network_device_service_seconds_count{method=\"delete\"")))
+                .andExpect(content().string(containsString("network_device_service_seconds_count{method=\"validateNoNetworkLoop\"")))
+                .andExpect(content().string(containsString("network_device_loop_walk_depth_count")))
+                .andExpect(content().string(containsString("network_device_request_statements_count{method=\"PUT\",uri=\"/device\"")))
+                .andExpect(content().string(containsString("network_device_request_entities_loaded_count{method=\"GET\",uri=\"/device/{macAddress}\"")));
+    }
+
+    @Test
+    public void testFlightRecorderEvents_ExpectSuccess() throws Exception {
+        Configuration configuration;
+
+        try (InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream("/jfr/network-topology.jfc"), StandardCharsets.UTF_8)) {
+            configuration = Configuration.create(reader);
+        }
+
+        Path file = Files.createTempFile("network-topology", ".jfr");
+        List<RecordedEvent> events;
+
+        try (Recording recording = new Recording(configuration)) {
+            recording.start();
+
+            createAndSaveNetworkDevice("ee:00:00:00:00:30", null, GATEWAY.toString(), "recorded");
+            createAndSaveNetworkDevice("ee:00:00:00:00:31", "ee:00:00:00:00:30", SWITCH.toString(), "recorded");
+            createAndSaveNetworkDevice("ee:00:00:00:00:32", "ee:00:00:00:00:31", ACCESS_POINT.toString(), "recorded");
+            mvc.perform(get("/device/topology/simple")).andExpect(status().isOk());
+            service.delete("ee:00:00:00:00:31");
+            service.delete("ee:00:00:00:00:30");
+            service.delete("ee:00:00:00:00:32");
+
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        List<RecordedEvent> saves = events.stream().filter((event) -> event.getEventType().getName().equals("io.sjohnson.ubnttask.DeviceSave")).toList();
+        assertThat(saves).hasSize(3);
+        assertThat(saves.get(2).getString("macAddress")).isEqualTo("ee:00:00:00:00:32");
+        assertThat(saves.get(2).getString("uplink")).isEqualTo("ee:00:00:00:00:31");
+        assertThat(saves.get(2).getInt("loopWalkDepth")).isEqualTo(2);
+        assertThat(saves.get(2).getBoolean("rejected")).isFalse();
+
+        RecordedEvent delete = events.stream().filter((event) -> event.getEventType().getName().equals("io.sjohnson.ubnttask.DeviceDelete")).findFirst().orElseThrow();
+        assertThat(delete.getString("macAddress")).isEqualTo("ee:00:00:00:00:31");
+        assertThat(delete.getInt("orphaned")).isEqualTo(1);
+
+        RecordedEvent build = events.stream().filter((event) -> event.getEventType().getName().equals("io.sjohnson.ubnttask.TopologyBuild")).findFirst().orElseThrow();
+        assertThat(build.getString("snapshot")).isEqualTo("simple");
+        assertThat(build.getInt("nodes")).isGreaterThanOrEqualTo(3);
+        assertThat(build.getLong("bytes")).isPositive();
+    }
+
+    @Test
+    public void getTopology_DuringSteadyWrites_ExpectServed() throws Exception {
+        List<NetworkDeviceDTO> devices = new ArrayList<>();
+        devices.add(new NetworkDeviceDTO("ee:00:00:00:00:30", null, GATEWAY.toString(), "gateway"));
+
+        for (int i = 0; i < 2000; i++) {
+            devices.add(new NetworkDeviceDTO(String.format("ee:00:00:00:%02x:%02x", 0x10 + i / 256, i % 256), "ee:00:00:00:00:30", SWITCH.toString(), "switch"));
+        }
+
+        service.saveAll(devices);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch stop = new CountDownLatch(1);
+
+        try {
+            // changes the index far faster than the topology can be built, so it has always changed again by the time a
+            // snapshot is built
+            Future<?> writes = executor.submit(() -> {
+                for (int i = 0; stop.getCount() > 0; i++) {
+                    index.putOnCommit(new NetworkDeviceDTO("ee:00:00:00:10:00", "ee:00:00:00:00:30", SWITCH.toString(), "switch " + i));
+                }
+            });
+
+            for (int i = 0; i < 20; i++) {
+                for (String path : List.of("/device/topology", "/device/topology/simple")) {
+                    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> mvc.perform(get(path))
+                            .andExpect(status().isOk())
+                            .andExpect(header().exists("ETag"))
+                            .andExpect(content().string(containsString("ee:00:00:00:10:00"))));
+                }
+            }
+
+            stop.countDown();
+            writes.get(10, TimeUnit.SECONDS);
+        } finally {
+            stop.countDown();
+            executor.shutdown();
+            service.delete("ee:00:00:00:00:30", true);
+        }
+    }
+
+    @Test
+    public void testConcurrentReparenting_ExpectNoLoop() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:40", null, GATEWAY.toString(), "gateway");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                createAndSaveNetworkDevice("ee:00:00:00:00:41", "ee:00:00:00:00:40", SWITCH.toString(), "switch A");
+                createAndSaveNetworkDevice("ee:00:00:00:00:42", "ee:00:00:00:00:40", SWITCH.toString(), "switch B");
+
+                CyclicBarrier barrier = new CyclicBarrier(2);
+                Future<Boolean> first = executor.submit(() -> reparent(barrier, "ee:00:00:00:00:41", "ee:00:00:00:00:42"));
+                Future<Boolean> second = executor.submit(() -> reparent(barrier, "ee:00:00:00:00:42", "ee:00:00:00:00:41"));
+
+                // one of them has to see the other's change and be rejected
+                assertThat(first.get(10, TimeUnit.SECONDS) ^ second.get(10, TimeUnit.SECONDS)).isTrue();
+                assertThat(service.getTopologyFromDevice("ee:00:00:00:00:40").getDownlinks()).hasSize(1);
+            }
+        } finally {
+            executor.shutdown();
+            service.delete("ee:00:00:00:00:40", true);
+        }
+    }
+
+    @Test
+    public void testUnrelatedWrites_ExpectConcurrent() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:50", null, GATEWAY.toString(), "gateway A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:51", null, GATEWAY.toString(), "gateway B");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            // holds the locks of a write under gateway A until released
+            Future<?> slowWrite = executor.submit(() -> new TransactionTemplate(transactionManager).executeWithoutResult((status) -> {
+                try {
+                    service.save(new NetworkDeviceDTO("ee:00:00:00:00:52", "ee:00:00:00:00:50", SWITCH.toString(), "switch A"));
+                    locked.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+
+            assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+            createAndSaveNetworkDevice("ee:00:00:00:00:53", "ee:00:00:00:00:51", SWITCH.toString(), "switch B");
+            assertThat(slowWrite.isDone()).isFalse();
+
+            release.countDown();
+            slowWrite.get(10, TimeUnit.SECONDS);
+            assertNetworkDeviceExists("ee:00:00:00:00:52", "ee:00:00:00:00:50", SWITCH.toString(), "switch A");
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            service.delete("ee:00:00:00:00:50", true);
+            service.delete("ee:00:00:00:00:51", true);
+        }
+    }
+
+    @Test
+    public void testUpsertNetworkDevice_Unchanged_ExpectSkipped() throws Exception {
+        try {
+            NetworkDeviceDTO saved = service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:60", null, GATEWAY.toString(), "gateway"));
+            assertThat(saved.getMacAddress()).isEqualTo("ee:00:00:00:00:60");
+            long version = index.getVersion();
+
+            mvc.perform(put("/device")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"macAddress\":\"ee:00:00:00:00:60\",\"type\":\"GATEWAY\",\"friendlyName\":\"gateway\"}"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.macAddress").value("ee:00:00:00:00:60"));
+            assertThat(index.getVersion()).isEqualTo(version);
+
+            service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:60", null, GATEWAY.toString(), "renamed"));
+            assertThat(index.getVersion()).isGreaterThan(version);
+            assertNetworkDeviceExists("ee:00:00:00:00:60", null, GATEWAY.toString(), "renamed");
+        } finally {
+            service.delete("ee:00:00:00:00:60", true);
+        }
+    }
+
+    @Test
+    public void testConcurrentUpserts_ExpectGroupCommitted() throws Exception {
+        service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:70", null, GATEWAY.toString(), "gateway"));
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(threads);
+            List<Future<NetworkDeviceDTO>> saves = new ArrayList<>();
+
+            for (int i = 0; i < threads; i++) {
+                NetworkDeviceDTO device = new NetworkDeviceDTO(String.format("ee:00:00:00:01:%02x", i), "ee:00:00:00:00:70", SWITCH.toString(), "switch");
+                saves.add(executor.submit(() -> {
+                    barrier.await(10, TimeUnit.SECONDS);
+                    return service.upsert(device);
+                }));
+            }
+
+            // acknowledged saves are committed, whichever group they were in
+            for (int i = 0; i < threads; i++) {
+                assertThat(saves.get(i).get(10, TimeUnit.SECONDS).getMacAddress()).isEqualTo(String.format("ee:00:00:00:01:%02x", i));
+                assertNetworkDeviceExists(String.format("ee:00:00:00:01:%02x", i), "ee:00:00:00:00:70", SWITCH.toString(), "switch");
+            }
+
+            assertThat(service.getTopologyFromDevice("ee:00:00:00:00:70").getDownlinks()).hasSize(threads);
+
+            // saves within a group are validated one after another, so one of them still sees the other's change
+            for (int i = 0; i < 20; i++) {
+                service.upsert(new NetworkDeviceDTO("ee:00:00:00:01:00", "ee:00:00:00:00:70", SWITCH.toString(), "switch"));
+                service.upsert(new NetworkDeviceDTO("ee:00:00:00:01:01", "ee:00:00:00:00:70", SWITCH.toString(), "switch"));
+
+                CyclicBarrier pair = new CyclicBarrier(2);
+                Future<Boolean> first = executor.submit(() -> reparentUpsert(pair, "ee:00:00:00:01:00", "ee:00:00:00:01:01"));
+                Future<Boolean> second = executor.submit(() -> reparentUpsert(pair, "ee:00:00:00:01:01", "ee:00:00:00:01:00"));
+
+                assertThat(first.get(10, TimeUnit.SECONDS) ^ second.get(10, TimeUnit.SECONDS)).isTrue();
+            }
+
+            mvc.perform(put("/device")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"macAddress\":\"ee:00:00:00:01:20\",\"uplink\":\"ee:00:00:00:01:21\",\"type\":\"SWITCH\"}"))
+                    .andExpect(status().is(404))
+                    .andExpect(content().string(containsString("Invalid uplink: ee:00:00:00:01:21 - device not found")));
+        } finally {
+            executor.shutdown();
+            service.delete("ee:00:00:00:00:70", true);
+        }
+    }
+
+    @Test
+    public void testUpsert_CommitterError_ExpectCommitterKeepsRunning() throws Exception {
+        doThrow(new StackOverflowError("committer failure")).doCallRealMethod().when(metrics).groupCommitted(anyInt());
+
+        try {
+            assertThatThrownBy(() -> service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:80", null, GATEWAY.toString(), "gateway A")))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasCauseInstanceOf(StackOverflowError.class);
+
+            service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:81", null, GATEWAY.toString(), "gateway B"));
+            assertNetworkDeviceExists("ee:00:00:00:00:81", null, GATEWAY.toString(), "gateway B");
+        } finally {
+            Mockito.reset(metrics);
+            service.delete("ee:00:00:00:00:80", true);
+            service.delete("ee:00:00:00:00:81", true);
+        }
+    }
+
+    @Test
+    public void testUpsert_GroupRetried_ExpectAuditedOnce() throws Exception {
+        Path auditLog = Path.of(auditLogFile);
+        long offset = Files.size(auditLog);
+        service.save(new NetworkDeviceDTO("ee:00:00:00:00:90", null, GATEWAY.toString(), "gateway"));
+
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the first group stalls once it has validated its save, the next one fails validating its second save, and is
+        // retried
+        doAnswer((invocation) -> {
+            committing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).doThrow(new IllegalStateException("group failure")).doCallRealMethod().when(metrics).stop(any(), eq("validateNoNetworkLoop"));
+
+        // queued for the same committer
+        List<String> macAddresses = macAddressesOfCommitter(0, 3);
+        FutureTask<NetworkDeviceDTO> stalled = new FutureTask<>(() -> service.upsert(new NetworkDeviceDTO(macAddresses.get(0), "ee:00:00:00:00:90", SWITCH.toString(), "stalled")));
+        FutureTask<NetworkDeviceDTO> first = new FutureTask<>(() -> service.upsert(new NetworkDeviceDTO(macAddresses.get(1), null, GATEWAY.toString(), "retried")));
+        FutureTask<NetworkDeviceDTO> second = new FutureTask<>(() -> service.upsert(new NetworkDeviceDTO(macAddresses.get(2), "ee:00:00:00:00:90", SWITCH.toString(), "failing")));
+
+        try {
+            new Thread(stalled).start();
+            assertThat(committing.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // queued one after another while the committer is stalled, so they're committed as one group
+            awaitQueued(first);
+            awaitQueued(second);
+            release.countDown();
+
+            assertThat(stalled.get(10, TimeUnit.SECONDS).getFriendlyName()).isEqualTo("stalled");
+            assertThat(first.get(10, TimeUnit.SECONDS).getFriendlyName()).isEqualTo("retried");
+            assertThat(second.get(10, TimeUnit.SECONDS).getFriendlyName()).isEqualTo("failing");
+
+            String retried = String.format("\"action\":\"DEVICE_SAVED\",\"macAddress\":\"%s\"", macAddresses.get(1));
+            String failing = String.format("\"action\":\"DEVICE_SAVED\",\"macAddress\":\"%s\"", macAddresses.get(2));
+            String records = "";
+
+            // the retries are audited in order, so both are in once the second one is
+            for (long deadline = System.currentTimeMillis() + 5000; !records.contains(failing) && System.currentTimeMillis() < deadline; Thread.sleep(20)) {
+                records = Files.readString(auditLog).substring((int) offset);
+            }
+
+            assertThat(records.split(retried, -1)).hasSize(2);
+            assertThat(records.split(failing, -1)).hasSize(2);
+        } finally {
+            release.countDown();
+            Mockito.reset(metrics);
+            service.delete("ee:00:00:00:00:90", true);
+            service.delete(macAddresses.get(1), true);
+        }
+    }
+
+    @Test
+    public void testUnrelatedUpserts_ExpectConcurrent() throws Exception {
+        service.save(new NetworkDeviceDTO("ee:00:00:00:00:a0", null, GATEWAY.toString(), "gateway"));
+        String stalledMacAddress = macAddressesOfCommitter(0, 1).get(0);
+        String unrelatedMacAddress = macAddressesOfCommitter(1, 1).get(0);
+
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        doAnswer((invocation) -> {
+            committing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).doCallRealMethod().when(metrics).stop(any(), eq("validateNoNetworkLoop"));
+
+        FutureTask<NetworkDeviceDTO> stalled = new FutureTask<>(() -> service.upsert(new NetworkDeviceDTO(stalledMacAddress, "ee:00:00:00:00:a0", SWITCH.toString(), "stalled")));
+
+        try {
+            new Thread(stalled).start();
+            assertThat(committing.await(10, TimeUnit.SECONDS)).isTrue();
+            double statements = requestStatements("PUT", "/device");
+
+            // committed by another committer while the first one is stalled
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> mvc.perform(put("/device")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(asJsonString(new NetworkDeviceDTO(unrelatedMacAddress, null, GATEWAY.toString(), "unrelated"))))
+                    .andExpect(status().isOk()));
+            assertThat(stalled.isDone()).isFalse();
+
+            // the statements of the committer's transaction are charged to the request
+            assertThat(requestStatements("PUT", "/device")).isGreaterThan(statements);
+
+            release.countDown();
+            assertThat(stalled.get(10, TimeUnit.SECONDS).getFriendlyName()).isEqualTo("stalled");
+            assertNetworkDeviceExists(unrelatedMacAddress, null, GATEWAY.toString(), "unrelated");
+        } finally {
+            release.countDown();
+            Mockito.reset(metrics);
+            service.delete("ee:00:00:00:00:a0", true);
+            service.delete(unrelatedMacAddress, true);
+        }
+    }
+
+    // MAC addresses from ee:00:00:00:09:00 on, whose saves are queued for the given group committer
+    private List<String> macAddressesOfCommitter(int committer, int count) {
+        List<String> macAddresses = new ArrayList<>();
+
+        for (int i = 0; macAddresses.size() < count; i++) {
+            String macAddress = String.format("ee:00:00:00:09:%02x", i);
+
+            if (Math.floorMod(index.lockStripeOf(MacAddress.parse(macAddress)), groupCommitters) == committer) {
+                macAddresses.add(macAddress);
+            }
+        }
+
+        return macAddresses;
+    }
+
+    private double requestStatements(String method, String uri) {
+        DistributionSummary summary = meterRegistry.find("network.device.request.statements").tags("method", method, "uri", uri).summary();
+
+        return summary != null ? summary.totalAmount() : 0;
+    }
+
+    private static void awaitQueued(FutureTask<?> save) throws InterruptedException {
+        Thread thread = new Thread(save);
+        thread.start();
+
+        for (long deadline = System.currentTimeMillis() + 5000; thread.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline; Thread.sleep(5)) {
+            // waits for the save to block on its group being committed
+        }
+    }
+
+    @Test
+    public void testGetNetworkDevice_FromIndex_ExpectCurrent() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:80", null, GATEWAY.toString(), "gateway");
+        createAndSaveNetworkDevice("ee:00:00:00:00:81", "ee:00:00:00:00:80", SWITCH.toString(), "switch");
+
+        try {
+            mvc.perform(get("/device/ee:00:00:00:00:81")).andExpect(status().isOk());
+            double lookups = meterRegistry.get("network.device.lookups").tag("source", "index").counter().count();
+            double statements = requestStatements("GET", "/device/{macAddress}");
+
+            for (int i = 0; i < 3; i++) {
+                mvc.perform(get("/device/ee:00:00:00:00:81"))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.friendlyName").value("switch"));
+            }
+
+            // served without a single query
+            assertThat(meterRegistry.get("network.device.lookups").tag("source", "index").counter().count()).isEqualTo(lookups + 3);
+            assertThat(requestStatements("GET", "/device/{macAddress}")).isEqualTo(statements);
+
+            service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:81", "ee:00:00:00:00:80", SWITCH.toString(), "renamed"));
+            mvc.perform(get("/device/ee:00:00:00:00:81"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.friendlyName").value("renamed"));
+
+            // orphaned by the delete, so its uplink is gone as well
+            service.delete("ee:00:00:00:00:80");
+            mvc.perform(get("/device/ee:00:00:00:00:81"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.uplink").doesNotExist());
+        } finally {
+            for (String macAddress : List.of("ee:00:00:00:00:80", "ee:00:00:00:00:81")) {
+                if (index.contains(MacAddress.parse(macAddress))) {
+                    service.delete(macAddress, true);
+                }
+            }
+        }
+
+        mvc.perform(get("/device/ee:00:00:00:00:81"))
+                .andExpect(status().is(404));
+    }
+
+    @Test
+    public void getSubtree_AfterMovesAndDeletes_ExpectSuccess() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:90", null, GATEWAY.toString(), "gateway A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:91", null, GATEWAY.toString(), "gateway B");
+        createAndSaveNetworkDevice("ee:00:00:00:00:92", "ee:00:00:00:00:90", SWITCH.toString(), "switch");
+        createAndSaveNetworkDevice("ee:00:00:00:00:93", "ee:00:00:00:00:92", ACCESS_POINT.toString(), "access point");
+
+        try {
+            // moves the switch along with the access point below it
+            service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:92", "ee:00:00:00:00:91", SWITCH.toString(), "switch"));
+            assertThat(repository.findSubtree(MacAddress.parse("ee:00:00:00:00:90"))).hasSize(1);
+            assertThat(repository.findSubtree(MacAddress.parse("ee:00:00:00:00:91")))
+                    .extracting(NetworkDeviceSubtreeRow::getDepth)
+                    .containsExactly(0, 1, 2);
+
+            // moves it back, and adds a device below the access point in the same batch
+            service.saveAll(List.of(
+                    new NetworkDeviceDTO("ee:00:00:00:00:94", "ee:00:00:00:00:93", SWITCH.toString(), "switch"),
+                    new NetworkDeviceDTO("ee:00:00:00:00:92", "ee:00:00:00:00:90", SWITCH.toString(), "switch")));
+
+            for (String macAddress : List.of("ee:00:00:00:00:90", "ee:00:00:00:00:91", "ee:00:00:00:00:92")) {
+                assertThat(asJsonString(mapper.toTopology(repository.findSubtree(MacAddress.parse(macAddress))))).isEqualTo(asJsonString(service.getTopologyFromDevice(macAddress)));
+            }
+
+            // orphans the switch, which becomes the root of its own subtree
+            service.delete("ee:00:00:00:00:90");
+            assertThat(repository.findSubtree(MacAddress.parse("ee:00:00:00:00:92")))
+                    .extracting(NetworkDeviceSubtreeRow::getDepth)
+                    .containsExactly(0, 1, 2);
+            assertThat(asJsonString(mapper.toTopology(repository.findSubtree(MacAddress.parse("ee:00:00:00:00:92"))))).isEqualTo(asJsonString(service.getTopologyFromDevice("ee:00:00:00:00:92")));
+        } finally {
+            for (String macAddress : List.of("ee:00:00:00:00:90", "ee:00:00:00:00:91", "ee:00:00:00:00:92")) {
+                if (index.contains(MacAddress.parse(macAddress))) {
+                    service.delete(macAddress, true);
+                }
+            }
+        }
+
+        assertThat(repository.findSubtree(MacAddress.parse("ee:00:00:00:00:93"))).isEmpty();
+    }
+
+    @Test
+    public void topologySnapshot_ExportAndImport_ExpectRestored() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:a0", null, GATEWAY.toString(), "gateway");
+        createAndSaveNetworkDevice("ee:00:00:00:00:a1", "ee:00:00:00:00:a0", SWITCH.toString(), "switch");
+        createAndSaveNetworkDevice("ee:00:00:00:00:a2", "ee:00:00:00:00:a1", ACCESS_POINT.toString(), null);
+
+        try {
+            String topology = asJsonString(service.getTopologyFromDevice("ee:00:00:00:00:a0"));
+            byte[] snapshot = mvc.perform(get("/device/topology/snapshot"))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+                    .andReturn().getResponse().getContentAsByteArray();
+
+            service.delete("ee:00:00:00:00:a0", true);
+
+            mvc.perform(put("/device/topology/snapshot").contentType(MediaType.APPLICATION_OCTET_STREAM).content(snapshot))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.errors").isEmpty());
+
+            assertThat(asJsonString(service.getTopologyFromDevice("ee:00:00:00:00:a0"))).isEqualTo(topology);
+            assertThat(repository.findSubtree(MacAddress.parse("ee:00:00:00:00:a0"))).hasSize(3);
+        } finally {
+            if (index.contains(MacAddress.parse("ee:00:00:00:00:a0"))) {
+                service.delete("ee:00:00:00:00:a0", true);
+            }
+        }
+    }
+
+    @Test
+    public void topologySnapshot_ImportCorrupted_ExpectFailure() throws Exception {
+        byte[] snapshot = service.exportTopologySnapshot();
+        snapshot[snapshot.length / 2] ^= 1;
+
+        mvc.perform(put("/device/topology/snapshot").contentType(MediaType.APPLICATION_OCTET_STREAM).content(snapshot))
+                .andExpect(status().is(400))
+                .andExpect(content().string(containsString("checksum mismatch")));
+
+        mvc.perform(put("/device/topology/snapshot").contentType(MediaType.APPLICATION_OCTET_STREAM).content(new byte[] {1, 2, 3}))
+                .andExpect(status().is(400));
+    }
+
+    @Test
+    public void topologySnapshotFile_OfAnotherDatabase_ExpectIgnored() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:0a:10", null, GATEWAY.toString(), "gateway");
+
+        try {
+            List<NetworkDeviceDTO> devices = index.getDevicesTopDown();
+
+            snapshotFile.write(devices);
+            assertThat(snapshotFile.read()).hasValueSatisfying((read) -> assertThat(asJsonString(read)).isEqualTo(asJsonString(devices)));
+
+            new NetworkTopologySnapshotFile(snapshotFilePath, "jdbc:h2:file:./another.h2").write(devices);
+            assertThat(snapshotFile.read()).isEmpty();
+
+            // exports aren't tied to any database
+            Files.write(Path.of(snapshotFilePath), service.exportTopologySnapshot());
+            assertThat(snapshotFile.read()).isEmpty();
+        } finally {
+            Files.deleteIfExists(Path.of(snapshotFilePath));
+            service.delete("ee:00:00:00:0a:10", true);
+        }
+    }
+
+    @Test
+    public void topologySnapshotWriter_ChangedDuringLastWrite_ExpectWrittenOnStop() throws Exception {
+        Path path = Path.of(snapshotFilePath + ".writer");
+        NetworkTopologySnapshotFile file = Mockito.spy(new NetworkTopologySnapshotFile(path.toString(), databaseUrl));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+
+        // holds the first write, the one stopping the writer wakes it up for, until the topology has changed
+        doAnswer((invocation) -> {
+            if (writing.getCount() > 0) {
+                writing.countDown();
+                assertThat(changed.await(10, TimeUnit.SECONDS)).isTrue();
+            }
+
+            return invocation.callRealMethod();
+        }).when(file).write(any());
+
+        NetworkTopologySnapshotWriter writer = new NetworkTopologySnapshotWriter(index, file, Duration.ofHours(1));
+        writer.start();
+        FutureTask<Void> stop = new FutureTask<>(() -> {
+            writer.stop();
+            return null;
+        });
+
+        try {
+            new Thread(stop).start();
+            assertThat(writing.await(10, TimeUnit.SECONDS)).isTrue();
+
+            service.save(new NetworkDeviceDTO("ee:00:00:00:0a:20", null, GATEWAY.toString(), "changed while writing"));
+            changed.countDown();
+            stop.get(10, TimeUnit.SECONDS);
+
+            assertThat(file.read()).hasValueSatisfying((devices) -> assertThat(devices)
+                    .anySatisfy((device) -> assertThat(device.getMacAddress()).isEqualTo("ee:00:00:00:0a:20")));
+        } finally {
+            changed.countDown();
+            Files.deleteIfExists(path);
+            service.delete("ee:00:00:00:0a:20", true);
+        }
+    }
+
+    @Test
+    public void testUpsert_MatchingStaleSnapshot_ExpectSaved() throws Exception {
+        String device = asJsonString(new NetworkDeviceDTO("ee:00:00:00:0a:00", null, GATEWAY.toString(), "from snapshot"));
+        service.save(new NetworkDeviceDTO("ee:00:00:00:0a:00", null, GATEWAY.toString(), "from snapshot"));
+        snapshotFile.write(index.getDevicesTopDown());
+        service.save(new NetworkDeviceDTO("ee:00:00:00:0a:00", null, GATEWAY.toString(), "from database"));
+
+        FutureTask<MvcResult> upsert = new FutureTask<>(() -> mvc.perform(put("/device").contentType(MediaType.APPLICATION_JSON).content(device)).andReturn());
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            // holds the verification of the snapshot until the database is released
+            statement.execute("SET EXCLUSIVE 1");
+
+            try {
+                index.load();
+                assertThat(index.isVerified()).isFalse();
+                assertThat(index.getTopologyFrom(MacAddress.parse("ee:00:00:00:0a:00")).getFriendlyName()).isEqualTo("from snapshot");
+
+                Thread thread = new Thread(upsert);
+                thread.start();
+
+                for (long deadline = System.currentTimeMillis() + 5000; thread.getState() != Thread.State.WAITING && !upsert.isDone() && System.currentTimeMillis() < deadline; Thread.sleep(5)) {
+                    // waits for the save to wait for the verification
+                }
+
+                assertThat(upsert.isDone()).isFalse();
+            } finally {
+                statement.execute("SET EXCLUSIVE 0");
+            }
+
+            assertThat(upsert.get(10, TimeUnit.SECONDS).getResponse().getStatus()).isEqualTo(200);
+            assertThat(index.isVerified()).isTrue();
+            assertNetworkDeviceExists("ee:00:00:00:0a:00", null, GATEWAY.toString(), "from snapshot");
+        } finally {
+            Files.deleteIfExists(Path.of(snapshotFilePath));
+            service.delete("ee:00:00:00:0a:00", true);
+        }
+    }
+
+    @Test
+    public void getPath_AfterMovesAndDeletes_ExpectSuccess() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:b0", null, GATEWAY.toString(), "gateway A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:b1", null, GATEWAY.toString(), "gateway B");
+        createAndSaveNetworkDevice("ee:00:00:00:00:b2", "ee:00:00:00:00:b0", SWITCH.toString(), "switch A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:b3", "ee:00:00:00:00:b2", SWITCH.toString(), "switch B");
+        createAndSaveNetworkDevice("ee:00:00:00:00:b4", "ee:00:00:00:00:b3", ACCESS_POINT.toString(), "access point A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:b5", "ee:00:00:00:00:b2", ACCESS_POINT.toString(), "access point B");
+
+        try {
+            mvc.perform(get("/device/ee:00:00:00:00:b4/path/ee:00:00:00:00:b5"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hops[*].macAddress", contains("ee:00:00:00:00:b4", "ee:00:00:00:00:b3", "ee:00:00:00:00:b2", "ee:00:00:00:00:b5")))
+                    .andExpect(jsonPath("$.lowestCommonAncestor.macAddress").value("ee:00:00:00:00:b2"));
+
+            mvc.perform(get("/device/ee:00:00:00:00:b0/path/ee:00:00:00:00:b4"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hops[*].macAddress", contains("ee:00:00:00:00:b0", "ee:00:00:00:00:b2", "ee:00:00:00:00:b3", "ee:00:00:00:00:b4")))
+                    .andExpect(jsonPath("$.lowestCommonAncestor.macAddress").value("ee:00:00:00:00:b0"));
+
+            mvc.perform(get("/device/ee:00:00:00:00:b4/path/ee:00:00:00:00:b4"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hops[*].macAddress", contains("ee:00:00:00:00:b4")));
+
+            // moves switch B along with access point A into the other tree
+            service.save(new NetworkDeviceDTO("ee:00:00:00:00:b3", "ee:00:00:00:00:b1", SWITCH.toString(), "switch B"));
+
+            mvc.perform(get("/device/ee:00:00:00:00:b4/path/ee:00:00:00:00:b5"))
+                    .andExpect(status().is(404))
+                    .andExpect(content().string(containsString("different trees")));
+
+            mvc.perform(get("/device/ee:00:00:00:00:b4/path/ee:00:00:00:00:b1"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hops[*].macAddress", contains("ee:00:00:00:00:b4", "ee:00:00:00:00:b3", "ee:00:00:00:00:b1")));
+
+            // orphans switch B, which becomes a root device
+            service.delete("ee:00:00:00:00:b1");
+
+            mvc.perform(get("/device/ee:00:00:00:00:b3/path/ee:00:00:00:00:b4"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hops[*].macAddress", contains("ee:00:00:00:00:b3", "ee:00:00:00:00:b4")))
+                    .andExpect(jsonPath("$.lowestCommonAncestor.macAddress").value("ee:00:00:00:00:b3"));
+
+            mvc.perform(get("/device/ee:00:00:00:00:b3/path/ee:00:00:00:00:b1"))
+                    .andExpect(status().is(404))
+                    .andExpect(content().string(containsString("Device not found")));
+        } finally {
+            for (String macAddress : List.of("ee:00:00:00:00:b0", "ee:00:00:00:00:b1", "ee:00:00:00:00:b3")) {
+                if (index.contains(MacAddress.parse(macAddress))) {
+                    service.delete(macAddress, true);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getImpact_AfterMovesAndDeletes_ExpectSuccess() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:c0", null, GATEWAY.toString(), "gateway A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:c1", null, GATEWAY.toString(), "gateway B");
+        createAndSaveNetworkDevice("ee:00:00:00:00:c2", "ee:00:00:00:00:c0", SWITCH.toString(), "switch A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:c3", "ee:00:00:00:00:c2", SWITCH.toString(), "switch B");
+        createAndSaveNetworkDevice("ee:00:00:00:00:c4", "ee:00:00:00:00:c3", ACCESS_POINT.toString(), "access point A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:c5", "ee:00:00:00:00:c2", ACCESS_POINT.toString(), "access point B");
+
+        try {
+            expectImpact("ee:00:00:00:00:c0", 0, 2, 2, 3);
+            expectImpact("ee:00:00:00:00:c2", 0, 1, 2, 2);
+            expectImpact("ee:00:00:00:00:c4", 0, 0, 0, 0);
+
+            // moves switch B along with access point A to the other gateway
+            service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:c3", "ee:00:00:00:00:c1", SWITCH.toString(), "switch B"));
+            expectImpact("ee:00:00:00:00:c0", 0, 1, 1, 2);
+            expectImpact("ee:00:00:00:00:c1", 0, 1, 1, 2);
+
+            // retypes access point B, and moves switch B back below it in the same batch
+            service.saveAll(List.of(
+                    new NetworkDeviceDTO("ee:00:00:00:00:c5", "ee:00:00:00:00:c2", SWITCH.toString(), "switch C"),
+                    new NetworkDeviceDTO("ee:00:00:00:00:c3", "ee:00:00:00:00:c5", SWITCH.toString(), "switch B")));
+            expectImpact("ee:00:00:00:00:c0", 0, 3, 1, 4);
+            expectImpact("ee:00:00:00:00:c1", 0, 0, 0, 0);
+
+            // orphans switch C, taking its subtree away from gateway A
+            service.delete("ee:00:00:00:00:c5");
+            expectImpact("ee:00:00:00:00:c0", 0, 1, 0, 1);
+            expectImpact("ee:00:00:00:00:c3", 0, 0, 1, 1);
+
+            service.delete("ee:00:00:00:00:c3", true);
+            expectImpact("ee:00:00:00:00:c2", 0, 0, 0, 0);
+
+            mvc.perform(get("/device/ee:00:00:00:00:c3/impact"))
+                    .andExpect(status().is(404));
+        } finally {
+            for (String macAddress : List.of("ee:00:00:00:00:c0", "ee:00:00:00:00:c1", "ee:00:00:00:00:c3", "ee:00:00:00:00:c5")) {
+                if (index.contains(MacAddress.parse(macAddress))) {
+                    service.delete(macAddress, true);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getImpact_DownlinksOfSameDepth_ExpectDepthKeptUntilLastIsGone() throws Exception {
+        createAndSaveNetworkDevice("ee:00:00:00:00:d0", null, GATEWAY.toString(), "gateway");
+        createAndSaveNetworkDevice("ee:00:00:00:00:d1", "ee:00:00:00:00:d0", SWITCH.toString(), "switch A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:d2", "ee:00:00:00:00:d0", SWITCH.toString(), "switch B");
+        createAndSaveNetworkDevice("ee:00:00:00:00:d3", "ee:00:00:00:00:d1", ACCESS_POINT.toString(), "access point A");
+        createAndSaveNetworkDevice("ee:00:00:00:00:d4", "ee:00:00:00:00:d2", ACCESS_POINT.toString(), "access point B");
+
+        try {
+            expectImpact("ee:00:00:00:00:d0", 0, 2, 2, 2);
+
+            // switch B still reaches as deep as switch A did
+            service.upsert(new NetworkDeviceDTO("ee:00:00:00:00:d3", "ee:00:00:00:00:d0", ACCESS_POINT.toString(), "access point A"));
+            expectImpact("ee:00:00:00:00:d0", 0, 2, 2, 2);
+            expectImpact("ee:00:00:00:00:d1", 0, 0, 0, 0);
+
+            service.delete("ee:00:00:00:00:d4");
+            expectImpact("ee:00:00:00:00:d0", 0, 2, 1, 1);
+
+            // moves access point A down two levels, below switch B below switch A
+            service.saveAll(List.of(
+                    new NetworkDeviceDTO("ee:00:00:00:00:d2", "ee:00:00:00:00:d1", SWITCH.toString(), "switch B"),
+                    new NetworkDeviceDTO("ee:00:00:00:00:d3", "ee:00:00:00:00:d2", ACCESS_POINT.toString(), "access point A")));
+            expectImpact("ee:00:00:00:00:d0", 0, 2, 1, 3);
+            expectImpact("ee:00:00:00:00:d1", 0, 1, 1, 2);
+        } finally {
+            if (index.contains(MacAddress.parse("ee:00:00:00:00:d0"))) {
+                service.delete("ee:00:00:00:00:d0", true);
+            }
+        }
+    }
+
+    private void expectImpact(String macAddress, int gateways, int switches, int accessPoints, int maxDepthBelow) throws Exception {
+        mvc.perform(get("/device/" + macAddress + "/impact"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.devicesBelow").value(gateways + switches + accessPoints))
+                .andExpect(jsonPath("$.devicesBelowByType.GATEWAY").value(gateways))
+                .andExpect(jsonPath("$.devicesBelowByType.SWITCH").value(switches))
+                .andExpect(jsonPath("$.devicesBelowByType.ACCESS_POINT").value(accessPoints))
+                .andExpect(jsonPath("$.maxDepthBelow").value(maxDepthBelow));
+    }
+
+    private boolean reparentUpsert(CyclicBarrier barrier, String macAddress, String uplink) throws Exception {
+        barrier.await(10, TimeUnit.SECONDS);
+
+        try {
+            service.upsert(new NetworkDeviceDTO(macAddress, uplink, SWITCH.toString(), "switch"));
+            return true;
+        } catch (DeviceCausesNetworkLoopException e) {
+            return false;
+        }
+    }
+
+    private boolean reparent(CyclicBarrier barrier, String macAddress, String uplink) throws Exception {
+        barrier.await(10, TimeUnit.SECONDS);
+
+        try {
+            service.save(new NetworkDeviceDTO(macAddress, uplink, SWITCH.toString(), "switch"));
+            return true;
+        } catch (DeviceCausesNetworkLoopException e) {
+            return false;
+        }
+    }
+
     @Test
     public void getTopologyFromDevice_MalformedMac_ExpectFailure() throws Exception {
         mvc.perform(get("/device/aa00aa00aa00/topology"))
@@ -313,11 +1567,59 @@ public class NetworkDeviceIntegrationTests {
                 .andExpect(status().is(404));
     }
 
+    @Test
+    public void testMacAddressColumnMigration_TextColumns_ExpectConverted() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource("jdbc:h2:mem:text-mac-addresses", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        try {
+            // the schema Hibernate created when MAC addresses were stored as text
+            jdbcTemplate.execute("CREATE TABLE network_device (mac_address VARCHAR(17) NOT NULL PRIMARY KEY, friendly_name VARCHAR(60), type VARCHAR(255), uplink_mac_address VARCHAR(17))");
+            jdbcTemplate.execute("ALTER TABLE network_device ADD CONSTRAINT fk_uplink FOREIGN KEY (uplink_mac_address) REFERENCES network_device");
+            jdbcTemplate.update("INSERT INTO network_device VALUES ('ff:00:00:00:00:00', 'UDM SE', 'GATEWAY', NULL), ('ff:00:00:00:00:0a', 'USW', 'SWITCH', 'ff:00:00:00:00:00')");
+
+            new MacAddressColumnMigration(jdbcTemplate).migrate();
+
+            assertThat(jdbcTemplate.queryForList("SELECT data_type FROM information_schema.columns WHERE table_name = 'NETWORK_DEVICE' AND column_name LIKE '%MAC_ADDRESS'", String.class))
+                    .containsExactly("BIGINT", "BIGINT");
+            assertThat(jdbcTemplate.queryForObject("SELECT uplink_mac_address FROM network_device WHERE mac_address = ?", Long.class, MacAddress.parse("ff:00:00:00:00:0a").toLong()))
+                    .isEqualTo(MacAddress.parse("ff:00:00:00:00:00").toLong());
+            assertThat(jdbcTemplate.queryForList("SELECT constraint_name FROM information_schema.table_constraints WHERE constraint_type = 'FOREIGN KEY'", String.class))
+                    .containsExactly("FK_UPLINK");
+
+            // an already converted database is left alone
+            new MacAddressColumnMigration(jdbcTemplate).migrate();
+        } finally {
+            dataSource.destroy();
+        }
+    }
+
+    @Test
+    public void testMacAddressColumnMigration_MalformedStoredMac_ExpectFailure() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource("jdbc:h2:mem:malformed-mac-addresses", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        try {
+            jdbcTemplate.execute("CREATE TABLE network_device (mac_address VARCHAR(17) NOT NULL PRIMARY KEY, friendly_name VARCHAR(60), type VARCHAR(255), uplink_mac_address VARCHAR(17))");
+            jdbcTemplate.update("INSERT INTO network_device VALUES ('FF:00:00:00:00:00', 'UDM SE', 'GATEWAY', NULL)");
+
+            assertThatThrownBy(() -> new MacAddressColumnMigration(jdbcTemplate).migrate())
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Can't convert stored MAC address FF:00:00:00:00:00 to BIGINT, it isn't formatted as 12:34:56:78:90:ab");
+
+            // nothing was changed
+            assertThat(jdbcTemplate.queryForObject("SELECT data_type FROM information_schema.columns WHERE table_name = 'NETWORK_DEVICE' AND column_name = 'MAC_ADDRESS'", String.class))
+                    .isEqualTo("CHARACTER VARYING");
+        } finally {
+            dataSource.destroy();
+        }
+    }
+
     public NetworkDevice createAndSaveNetworkDevice(String macAddress, String uplink, String type, String friendlyName) throws DeviceCausesNetworkLoopException, InvalidNetworkDeviceException {
         NetworkDeviceDTO dto = new NetworkDeviceDTO(macAddress, uplink, type, friendlyName);
         service.save(dto);
 
-        return repository.findByMacAddress(macAddress);
+        return repository.findByMacAddress(MacAddress.parse(macAddress));
     }
 
     public void createTopology() throws DeviceCausesNetworkLoopException, InvalidNetworkDeviceException {
@@ -338,20 +1640,28 @@ public class NetworkDeviceIntegrationTests {
     }
 
     public void assertNetworkDeviceExists(String macAddress, String uplink, String type, String friendlyName) {
-        NetworkDevice device = repository.findByMacAddress(macAddress);
+        NetworkDevice device = repository.findByMacAddress(MacAddress.parse(macAddress));
 
-        assertThat(device.getMacAddress()).isEqualTo(macAddress);
-        assertThat(device.getUplink()).isEqualTo(uplink);
+        assertThat(device.getMacAddress()).isEqualTo(MacAddress.parse(macAddress));
+        assertThat(device.getUplink()).isEqualTo(uplink != null ? MacAddress.parse(uplink) : null);
         assertThat(device.getType()).isEqualTo(type);
         assertThat(device.getFriendlyName()).isEqualTo(friendlyName);
     }
 
     public void assertNetworkDeviceDoesntExist(String macAddress) {
-        NetworkDevice device = repository.findByMacAddress(macAddress);
+        NetworkDevice device = repository.findByMacAddress(MacAddress.parse(macAddress));
 
         assertThat(device).isEqualTo(null);
     }
 
+    public JsonNode getJson(String url) throws Exception {
+        MvcResult result = mvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        return new ObjectMapper().readTree(result.getResponse().getContentAsString());
+    }
+
     public static String asJsonString(final Object obj) {
         try {
             return new ObjectMapper().writeValueAsString(obj);